@@ -1,15 +1,22 @@
 package Gui;
 
+import IOHandler.BackgroundIOHandler;
 import IOHandler.ExportHandler;
 import IOHandler.ImportHandler;
+import IOHandler.WBSJournal;
+import WBSData.WBSDocument;
 import WBSData.WBSHandler;
+import WBSData.WBSSnapshot;
 import WBSData.WBSVisualTreeItem;
+import javafx.concurrent.Task;
 import javafx.scene.control.*;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
 import javafx.stage.WindowEvent;
 
 import java.io.File;
+import java.util.function.Consumer;
 
 /**
  * Class to create the header of the gui. Includes file menu, edit menu, and view menu
@@ -24,6 +31,10 @@ public class HeaderMenu {
     private static Menu viewMenu;
 
     private static HBox menuBar;
+    private static HBox progressArea;
+    private static ProgressBar progressBar;
+    private static Task<Integer> runningTask;  // the most recently started background job
+    private static int pendingTasks = 0;
     private static TabView editor;
     private static WBSHandler wbsHandler;
 
@@ -61,7 +72,7 @@ public class HeaderMenu {
         MenuItem openFile = new MenuItem("Open...");
         openFile.setOnAction( e -> {
             FileChooser fileChooser = new FileChooser();
-            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("WBS File", "*.wbs"));  // wbs is the only file type usable
+            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("WBS File", "*.wbs", "*.wbsb"));  // xml or binary wbs files
             File file = fileChooser.showOpenDialog(menuBar.getScene().getWindow());
             if(file != null) {  // make sure user did not just close out of the file chooser window
                 WBSVisualTreeItem wbs = ImportHandler.readFile(file);
@@ -82,10 +93,13 @@ public class HeaderMenu {
             if(editor.getFocusedWBSUid() == null) {
                 return;
             }
-            wbsHandler.refreshWBSGui(editor.getFocusedWBSUid());
-            if(this.wbsHandler.getWBSSaveFile(editor.getFocusedWBSUid()).getName().contains("untitled")) {
+            boolean newFile = this.wbsHandler.getWBSSaveFile(editor.getFocusedWBSUid()).getName().contains("untitled");
+            if(newFile) {
                 FileChooser fileChooser = new FileChooser();
-                fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("WBS File", "*.wbs"));  // wbs is the only file type usable
+                fileChooser.getExtensionFilters().addAll(
+                        new FileChooser.ExtensionFilter("WBS File", "*.wbs"),
+                        new FileChooser.ExtensionFilter("Binary WBS File", "*.wbsb")  // picked by ending the file name with .wbsb
+                );
                 File fileName = fileChooser.showSaveDialog(menuBar.getScene().getWindow());
                 if(fileName != null) {
                     this.wbsHandler.setWBSSaveFile(editor.getFocusedWBSUid(), fileName);
@@ -93,8 +107,7 @@ public class HeaderMenu {
                     return;
                 }
             }
-            int code = ExportHandler.saveWBSToFile(wbsHandler.getWBS(editor.getFocusedWBSUid()), wbsHandler.getWBSSaveFile(editor.getFocusedWBSUid()));  // TODO: add checking with the return code
-
+            saveInBackground(wbsHandler.getWBS(editor.getFocusedWBSUid()), wbsHandler.getWBSSaveFile(editor.getFocusedWBSUid()), !newFile);
         });
 
         MenuItem saveFileAs = new MenuItem("Save As...");
@@ -102,12 +115,14 @@ public class HeaderMenu {
             if(editor.getFocusedWBSUid() == null) {
                 return;
             }
-            wbsHandler.refreshWBSGui(editor.getFocusedWBSUid());
             FileChooser fileChooser = new FileChooser();
-            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("WBS File", "*.wbs"));  // wbs is the only file type usable
+            fileChooser.getExtensionFilters().addAll(
+                    new FileChooser.ExtensionFilter("WBS File", "*.wbs"),
+                    new FileChooser.ExtensionFilter("Binary WBS File", "*.wbsb")  // picked by ending the file name with .wbsb
+            );
             File fileName = fileChooser.showSaveDialog(menuBar.getScene().getWindow());
             if(fileName != null) {
-                int code = ExportHandler.saveWBSToFile(wbsHandler.getWBS(editor.getFocusedWBSUid()), fileName);  // TODO: add checking with the return code
+                saveInBackground(wbsHandler.getWBS(editor.getFocusedWBSUid()), fileName, false);
                 wbsHandler.setWBSSaveFile(editor.getFocusedWBSUid(), fileName);
             }
         });
@@ -118,16 +133,26 @@ public class HeaderMenu {
             if(editor.getFocusedWBSUid() == null) {
                 return;
             }
-            wbsHandler.refreshWBSGui(editor.getFocusedWBSUid());
-            ExportHandler.promptExportToCSV(wbsHandler.getWBS(editor.getFocusedWBSUid()), menuBar.getScene().getWindow());
+            FileChooser fileChooser = new FileChooser();
+            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV File", "*.csv"));
+            File fileName = fileChooser.showSaveDialog(menuBar.getScene().getWindow());
+            if(fileName != null) {
+                WBSSnapshot snapshot = wbsHandler.getWBS(editor.getFocusedWBSUid()).getDocument().createSnapshot();
+                runInBackground(progress -> ExportHandler.exportWBSToCSV(snapshot, fileName, progress), code -> {});
+            }
         });
         MenuItem exportXLSX = new MenuItem("Micro$oft Excel File (.xlsx)");
         exportXLSX.setOnAction(e -> {
             if(editor.getFocusedWBSUid() == null) {
                 return;
             }
-            wbsHandler.refreshWBSGui(editor.getFocusedWBSUid());
-            ExportHandler.promptExportToExcel(wbsHandler.getWBS(editor.getFocusedWBSUid()), menuBar.getScene().getWindow());
+            FileChooser fileChooser = new FileChooser();
+            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Microsoft Excel File", "*.xlsx"));
+            File fileName = fileChooser.showSaveDialog(menuBar.getScene().getWindow());
+            if(fileName != null) {
+                WBSSnapshot snapshot = wbsHandler.getWBS(editor.getFocusedWBSUid()).getDocument().createSnapshot();
+                runInBackground(progress -> ExportHandler.exportWBSToXLSX(snapshot, fileName, progress), code -> {});
+            }
         });
 
         exportMenu.getItems().addAll(exportCSV, exportXLSX);
@@ -155,6 +180,35 @@ public class HeaderMenu {
     // edit menu
         editMenu = new Menu("_Edit");
 
+        MenuItem undo = new MenuItem("Undo");
+        undo.setAccelerator(KeyCombination.keyCombination("Shortcut+Z"));
+        undo.setOnAction(e -> {
+            if(editor.getFocusedWBSUid() == null) {
+                return;
+            }
+            if(wbsHandler.getWBS(editor.getFocusedWBSUid()).getDocument().getHistory().undo()) {
+                wbsHandler.refreshWBSGui(editor.getFocusedWBSUid());
+            }
+        });
+
+        MenuItem redo = new MenuItem("Redo");
+        redo.setAccelerator(KeyCombination.keyCombination("Shortcut+Y"));
+        redo.setOnAction(e -> {
+            if(editor.getFocusedWBSUid() == null) {
+                return;
+            }
+            if(wbsHandler.getWBS(editor.getFocusedWBSUid()).getDocument().getHistory().redo()) {
+                wbsHandler.refreshWBSGui(editor.getFocusedWBSUid());
+            }
+        });
+
+        editMenu.setOnShowing(e -> {  // only enable the items that will do something for the focused wbs
+            Integer focusedUid = editor.getFocusedWBSUid();
+            undo.setDisable(focusedUid == null || !wbsHandler.getWBS(focusedUid).getDocument().getHistory().canUndo());
+            redo.setDisable(focusedUid == null || !wbsHandler.getWBS(focusedUid).getDocument().getHistory().canRedo());
+        });
+        editMenu.getItems().addAll(undo, redo);
+
     // View menu
         viewMenu = new Menu("_View");
 
@@ -185,7 +239,77 @@ public class HeaderMenu {
             wbsHandler.refreshWBSGui(editor.getFocusedWBSUid());
         });
 
-        menuBar.getChildren().addAll(menu, update);
+        // shown while a save or export is running in the background
+        progressBar = new ProgressBar(0);
+        Button cancel = new Button("Cancel");
+        cancel.setOnAction(e -> {
+            if(runningTask != null) {
+                runningTask.cancel();
+            }
+        });
+        progressArea = new HBox(5);
+        progressArea.getChildren().addAll(progressBar, cancel);
+        progressArea.setVisible(false);
+        progressArea.setManaged(false);
+
+        menuBar.getChildren().addAll(menu, update, progressArea);
+    }
+
+
+    /**
+     * Saves a wbs without blocking the gui. The tree is copied when this is called so edits made
+     * while the file is written are not part of it and still count as unsaved afterwards
+     *
+     * @param wbs          the wbs to save
+     * @param file         the file to save the wbs to
+     * @param incremental  true if the file is the one the wbs was read from or last saved to, then
+     *                     only the changes are written to its journal unless the wbs needs a
+     *                     full save
+     */
+    private static void saveInBackground(WBSVisualTreeItem wbs, File file, boolean incremental) {
+        WBSDocument document = wbs.getDocument();
+        WBSSnapshot snapshot = document.createSnapshot();
+        BackgroundIOHandler.Job save;
+        if(incremental && !document.needsFullSave()) {
+            byte[] changes = WBSJournal.createBatch(document);  // taken with the snapshot so both match
+            save = progress -> ExportHandler.saveWBSIncrementally(snapshot, changes, file, progress);
+        } else {
+            save = progress -> ExportHandler.saveWBSToFile(snapshot, file, progress);
+        }
+        runInBackground(save, code -> {
+            if(code == 1) {
+                document.markSaved(snapshot.getModificationCount());
+            } else {
+                System.out.println("there was an error saving the file " + file.toString());
+            }
+        });
+    }
+
+
+    /**
+     * Runs a save or export in the background and shows its progress in the menu bar until it
+     * finishes
+     *
+     * @param job    the save or export to run
+     * @param onDone called on the gui thread with the result of the job
+     */
+    private static void runInBackground(BackgroundIOHandler.Job job, Consumer<Integer> onDone) {
+        pendingTasks += 1;
+        Task<Integer> task = BackgroundIOHandler.submit(job, code -> {
+            pendingTasks -= 1;
+            if(pendingTasks == 0) {
+                progressBar.progressProperty().unbind();
+                progressArea.setVisible(false);
+                progressArea.setManaged(false);
+                runningTask = null;
+            }
+            onDone.accept(code);
+        });
+
+        runningTask = task;
+        progressBar.progressProperty().bind(task.progressProperty());
+        progressArea.setVisible(true);
+        progressArea.setManaged(true);
     }
 
 
@@ -27,13 +27,11 @@ public class TabView {
     private static final double DEFAULT_FONT_SIZE = 12.0;
     private static int currentFontSizeIndex;
 
-    private Thread nameHandlerThread;
-
 
     /**
      * Creates a new TabView object where each pane is a different WBS. Needs an WBSHandler instance to determine
-     * which matrices to display and an InfoHandler instance to set the WBS in use. Creates and starts a daemon thread
-     * that manages the saved/unsaved name of the matrices in the tabview. Matrices already in the WBSHandler instance
+     * which matrices to display and an InfoHandler instance to set the WBS in use. Listens to the WBSHandler so that
+     * the saved/unsaved name of a tab is only updated when it changes. Matrices already in the WBSHandler instance
      * will be added to the tab.
      *
      * @param WBSHandler   the WBSHandler instance
@@ -59,49 +57,59 @@ public class TabView {
 
         tabPane.setTabClosingPolicy(TabPane.TabClosingPolicy.ALL_TABS);  // any tab can be closed, but add event to be called on close
 
-        this.nameHandlerThread = new Thread(() -> {
-            while(true) {  // go through and update names
-                for(HashMap.Entry<DraggableTab, Integer> entry : tabs.entrySet()) {
-                    String title = WBSHandler.getWBSSaveFile(entry.getValue()).getName();
-                    if(!WBSHandler.isWBSSaved(entry.getValue())) {
-                        title += "*";
-                    }
-                    if(entry.getKey().getText() != title) {
-                        String finalTitle = title;
-                        Platform.runLater(new Runnable(){  // this allows a thread to update the gui
-                            @Override
-                            public void run() {
-                                entry.getKey().setLabelText(finalTitle);
-                            }
-                        });
-                    }
-                }
-
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+        WBSHandler.addSaveStateListener(uid -> {
+            if(Platform.isFxApplicationThread()) {
+                updateTabTitle(uid);
+            } else {
+                Platform.runLater(() -> updateTabTitle(uid));  // this allows a thread to update the gui
             }
         });
-        nameHandlerThread.setDaemon(true);
-        nameHandlerThread.start();
     }
 
 
     /**
-     * Creates and adds a WBS tab to the TabPane from a WBS in the WBSHandler. This function
-     * must be called when creating or adding a WBS to the WBSHandler instance or else the WBS
-     * will not be displayed in the TabPane
+     * Returns the title of a tab, the name of the save file with a * if the WBS is not saved
      *
      * @param WBSUid the uid of the WBS in the WBSHandler instance
+     * @return       the title
      */
-    public void addTab(int WBSUid) {
+    private String getTabTitle(int WBSUid) {
         String title = WBSHandler.getWBSSaveFile(WBSUid).getName();
         if(!WBSHandler.isWBSSaved(WBSUid)) {
             title += "*";
         }
-        DraggableTab tab = new DraggableTab(title);
+        return title;
+    }
+
+
+    /**
+     * Updates the label of the tab of a WBS. Must be called on the gui thread
+     *
+     * @param WBSUid the uid of the WBS in the WBSHandler instance
+     */
+    private void updateTabTitle(int WBSUid) {
+        if(WBSHandler.getWBS(WBSUid) == null) {  // WBS was closed before the update ran
+            return;
+        }
+        String title = getTabTitle(WBSUid);
+        for(HashMap.Entry<DraggableTab, Integer> entry : tabs.entrySet()) {
+            if(entry.getValue() == WBSUid) {
+                entry.getKey().setLabelText(title);
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * Creates and adds a WBS tab to the TabPane from a WBS in the WBSHandler. This function
+     * must be called when creating or adding a WBS to the WBSHandler instance or else the WBS
+     * will not be displayed in the TabPane
+     *
+     * @param WBSUid the uid of the WBS in the WBSHandler instance
+     */
+    public void addTab(int WBSUid) {
+        DraggableTab tab = new DraggableTab(getTabTitle(WBSUid));
         WBSHandler.refreshWBSGui(WBSUid);
         tab.setContent(WBSHandler.getWBSGuiObject(WBSUid).getLayout());
         tab.setDetachable(false);
@@ -184,9 +184,11 @@ public class TreeContextMenu {
             Button okButton = new Button("Ok");
             okButton.setOnAction(ee -> {
                 double number = entry.getNumericValue().doubleValue();
-                for(int i=0; i<number; i++) {
-                    node.addChild(node.getNewNode());
-                }
+                node.runTransaction(() -> {  // durations and the save state are updated once for all the new nodes
+                    for(int i=0; i<number; i++) {
+                        node.addChild(node.getNewNode());
+                    }
+                });
                 window.close();
                 updateGuiFunction.run();
             });
@@ -257,11 +259,13 @@ public class TreeContextMenu {
         setNodeColorShallow.setOnAction(e -> {
             Color newColor = promptColor(node.getNodeColor());
             if(newColor != null) {
-                node.setNodeColor(newColor);
-                ArrayList<VisualTreeItem> children = node.getChildren();
-                for(VisualTreeItem child : children) {
-                    child.setNodeColor(newColor);
-                }
+                node.runTransaction(() -> {  // undone as one edit
+                    node.setNodeColor(newColor);
+                    ArrayList<VisualTreeItem> children = node.getChildren();
+                    for(VisualTreeItem child : children) {
+                        child.setNodeColor(newColor);
+                    }
+                });
                 updateGuiFunction.run();
             }
         });
@@ -271,10 +275,8 @@ public class TreeContextMenu {
         setNodeColorDeep.setOnAction(e -> {
             Color newColor = promptColor(node.getNodeColor());
             if(newColor != null) {
-                ArrayList<VisualTreeItem> descendants = node.getBranchNodes(new ArrayList<>(), node);
-                for(VisualTreeItem n : descendants) {
-                    n.setNodeColor(newColor);
-                }
+                VisualTreeItem<?> branch = node;
+                node.runTransaction(() -> branch.visitBranch(n -> n.setNodeColor(newColor)));
                 updateGuiFunction.run();
             }
         });
@@ -286,9 +288,11 @@ public class TreeContextMenu {
             Color newColor = promptColor(node.getNodeColor());
             if(newColor != null) {
                 ArrayList<WBSVisualTreeItem> siblings = node.getParent().getChildren();  // don't null check parent
-                for(WBSVisualTreeItem sibling : siblings) {
-                    sibling.setNodeColor(newColor);
-                }
+                node.runTransaction(() -> {
+                    for(WBSVisualTreeItem sibling : siblings) {
+                        sibling.setNodeColor(newColor);
+                    }
+                });
                 updateGuiFunction.run();
             }
         });
@@ -349,8 +353,7 @@ public class TreeContextMenu {
         breakout.setOnAction(e -> {
             if(node.getParent().getParent() != null) {
                 VisualTreeItem grandParent = node.getParent().getParent();
-                node.getParent().deleteChild(node);
-                grandParent.addChild(node);
+                node.runTransaction(() -> node.setParent(grandParent));  // moved in one step so links to the rest of the tree are kept
             }
             updateGuiFunction.run();
         });
@@ -370,12 +373,13 @@ public class TreeContextMenu {
         MenuItem deleteNode = new MenuItem("Pop Node");
         deleteNode.setOnAction(e -> {
             ArrayList<VisualTreeItem> children = (ArrayList<VisualTreeItem>)node.getChildren().clone();
-            for(VisualTreeItem child : children) {
-                System.out.println(child);
-                child.setExpanded(true);
-                node.getParent().addChild(child);
-            }
-            node.getParent().deleteChild(node);  // don't check for null parent because this box will be disabled if parent is null
+            node.runTransaction(() -> {  // undone as one edit
+                for(VisualTreeItem child : children) {
+                    child.setExpanded(true);
+                    node.getParent().addChild(child);
+                }
+                node.getParent().deleteChild(node);  // don't check for null parent because this box will be disabled if parent is null
+            });
             updateGuiFunction.run();
         });
 
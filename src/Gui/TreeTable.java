@@ -1,5 +1,6 @@
 package Gui;
 
+import WBSData.BranchIterator;
 import WBSData.VisualTreeItem;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
@@ -64,13 +65,13 @@ public class TreeTable {
 
 
     private void collapseNode(VisualTreeItem node) {
-        ArrayList<VisualTreeItem> descendants = node.getBranchNodes(new ArrayList<>(), node);
-        descendants.remove(node);
+        BranchIterator<?> descendants = node.branchIterator();
+        descendants.next();  // skip the node itself
         treeVisibleButtons.get(node).setText("+");
         node.setExpanded(false);
 
-        for(VisualTreeItem descendant : descendants) {  // hide all descendants
-            ArrayList<HBox> row = treeRowData.get(descendant);
+        while(descendants.hasNext()) {  // hide all descendants
+            ArrayList<HBox> row = treeRowData.get(descendants.next());
             for(HBox cell : row) {
                 cell.setVisible(false);
                 cell.setManaged(false);
@@ -79,32 +80,21 @@ public class TreeTable {
     }
 
     private void expandNode(VisualTreeItem node) {
-        ArrayList<VisualTreeItem> children = node.getChildren();
-        ArrayList<VisualTreeItem> otherDescendants = node.getBranchNodes(new ArrayList<>(), node);
-        otherDescendants.remove(node);
-        otherDescendants.removeAll(children);
+        BranchIterator<?> descendants = node.branchIterator();
+        descendants.next();  // skip the node itself
         treeVisibleButtons.get(node).setText("-");
         node.setExpanded(true);
 
-        // set children to be visible
-        for(VisualTreeItem child : children) {
-            ArrayList<HBox> row = treeRowData.get(child);  // expand the node
+        // set descendants to be visible, but don't go into branches that are still collapsed
+        while(descendants.hasNext()) {
+            VisualTreeItem descendant = descendants.next();
+            ArrayList<HBox> row = treeRowData.get(descendant);  // expand the node
             for(HBox cell : row) {
                 cell.setVisible(true);
                 cell.setManaged(true);
             }
-        }
-
-        // set other descendants to be visible only if parent is expanded
-        for(VisualTreeItem otherDescendant : otherDescendants) {
-            if(!otherDescendant.getParent().isExpanded()) {
-                continue;
-            }
-
-            ArrayList<HBox> row = treeRowData.get(otherDescendant);  // expand the node
-            for(HBox cell : row) {
-                cell.setVisible(true);
-                cell.setManaged(true);
+            if(!descendant.isExpanded()) {
+                descendants.skipChildren();
             }
         }
     }
@@ -0,0 +1,436 @@
+package IOHandler;
+
+import WBSData.WBSDocument;
+import WBSData.WBSHandler;
+import WBSData.WBSSnapshot;
+import WBSData.WBSVisualTreeItem;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Saves a copy of every wbs with unsaved changes to the recovery directory so the changes can be
+ * recovered after a crash. Copies are taken on the gui thread as snapshots and written in the
+ * binary format on the io thread, so the gui never waits for the disk
+ *
+ * A wbs is saved once its edits pause for a few seconds and enough time has passed since its last
+ * copy. The time between copies grows with how long writing the wbs takes and shrinks with the
+ * number of edits made since the last copy. Edits that never pause are still saved after twice
+ * that time. The copy of a wbs is removed once the wbs is saved or closed
+ *
+ * @author Aiden Carney
+ */
+public class AutosaveHandler {
+    public static final File RECOVERY_DIRECTORY = new File("./.recovery");
+    private static final String SOURCE_EXTENSION = ".source";  // holds the save file a copy belongs to
+    private static final long QUIET_DELAY = 3_000;             // ms without edits before a burst of edits is saved
+    private static final long MIN_INTERVAL = 10_000;           // ms between copies of a wbs that is edited a lot
+    private static final long BASE_INTERVAL = 60_000;          // ms between copies of a wbs that is edited a little
+    private static final long MAX_INTERVAL = 300_000;
+    private static final long COST_FACTOR = 50;                // at most 2% of the time goes to writing copies of a wbs
+    private static final long EDITS_PER_STEP = 50;             // the wait is halved after this many edits, a third after twice as many
+
+
+    /**
+     * What is known about the copies of one wbs
+     */
+    private static class DocumentState {
+        long seenCount;         // modification count at the last check
+        long writtenCount;      // modification count of the last copy, -1 if it has none
+        long editsFrom;         // modification count the edits not yet copied are counted from
+        long lastEdit;          // ms time the modification count last changed
+        long lastWrite;         // ms time the last copy finished or the wbs was first seen
+        long writeMillis = -1;  // how long the last copy took to write, -1 if it has not been written
+        boolean writing = false;
+        File recoveryFile = null;
+
+        DocumentState(long count, boolean saved, long now) {
+            seenCount = count;
+            writtenCount = saved ? count : -1;
+            editsFrom = count;
+            lastEdit = now;
+            lastWrite = now;
+        }
+    }
+
+
+    private final WBSHandler wbsHandler;
+    private final String sessionId;  // keeps the copies of this run apart from ones left by earlier runs
+    private final HashMap<Integer, DocumentState> states = new HashMap<>();
+    private Timeline timer = null;
+
+
+    /**
+     * Creates an autosave handler for the structures of a wbs handler. Nothing is saved until
+     * start is called
+     *
+     * @param wbsHandler the wbs handler with the structures to save
+     */
+    public AutosaveHandler(WBSHandler wbsHandler) {
+        this.wbsHandler = wbsHandler;
+        this.sessionId = Long.toString(System.currentTimeMillis(), 36);
+    }
+
+
+    /**
+     * Starts checking the structures for changes to save. Must be called from the gui thread
+     */
+    public void start() {
+        if(timer != null) {
+            return;
+        }
+        timer = new Timeline(new KeyFrame(Duration.seconds(1), e -> checkStructures()));
+        timer.setCycleCount(Animation.INDEFINITE);
+        timer.play();
+    }
+
+
+    /**
+     * Stops saving copies and removes the copies of structures that were saved or closed. Called
+     * when the application closes normally
+     */
+    public void stop() {
+        if(timer != null) {
+            timer.stop();
+            timer = null;
+        }
+        checkStructures();  // removes the copies that are no longer needed, does not start new ones
+    }
+
+
+    /**
+     * Checks every structure and starts a copy of the ones that are due
+     */
+    private void checkStructures() {
+        long now = System.currentTimeMillis();
+        HashMap<Integer, WBSVisualTreeItem> structures = wbsHandler.getWBSs();
+
+        Iterator<Map.Entry<Integer, DocumentState>> closed = states.entrySet().iterator();
+        while(closed.hasNext()) {
+            Map.Entry<Integer, DocumentState> entry = closed.next();
+            if(!structures.containsKey(entry.getKey())) {
+                deleteLater(entry.getValue().recoveryFile);
+                closed.remove();
+            }
+        }
+
+        for(Map.Entry<Integer, WBSVisualTreeItem> structure : structures.entrySet()) {
+            WBSDocument document = structure.getValue().getDocument();
+            long count = document.getModificationCount();
+            DocumentState state = states.computeIfAbsent(structure.getKey(), uid -> new DocumentState(count, document.isSaved(), now));
+            if(count != state.seenCount) {
+                state.seenCount = count;
+                state.lastEdit = now;
+            }
+
+            if(document.isSaved()) {
+                deleteLater(state.recoveryFile);
+                state.recoveryFile = null;
+                state.writtenCount = count;
+                state.editsFrom = count;
+                continue;
+            }
+            if(timer == null || state.writing || count == state.writtenCount) {
+                continue;
+            }
+
+            long interval = getInterval(state, document);
+            long sinceWrite = now - state.lastWrite;
+            boolean quiet = now - state.lastEdit >= QUIET_DELAY;
+            if((quiet && sinceWrite >= interval) || sinceWrite >= 2 * interval) {
+                autosave(structure.getKey(), document, state);
+            }
+        }
+    }
+
+
+    /**
+     * Returns how long to wait after the last copy of a wbs before making another one
+     */
+    private static long getInterval(DocumentState state, WBSDocument document) {
+        long writeMillis = state.writeMillis >= 0 ? state.writeMillis : 1 + document.size() / 1000;  // estimated until the wbs has been written once
+        long interval = Math.min(MAX_INTERVAL, Math.max(BASE_INTERVAL, writeMillis * COST_FACTOR));
+        long edits = document.getModificationCount() - state.editsFrom;
+        interval = interval * EDITS_PER_STEP / (EDITS_PER_STEP + edits);  // many unsaved edits are copied sooner
+        return Math.max(interval, Math.max(MIN_INTERVAL, writeMillis * 10));
+    }
+
+
+    /**
+     * Takes a snapshot of a wbs and writes it to its recovery file on the io thread
+     */
+    private void autosave(int uid, WBSDocument document, DocumentState state) {
+        File saveFile = wbsHandler.getWBSSaveFile(uid);
+        File recoveryFile = getRecoveryFile(uid, saveFile);
+        WBSSnapshot snapshot = document.createSnapshot();
+        long[] writeMillis = {0};
+
+        state.writing = true;
+        BackgroundIOHandler.submit(progress -> {
+            long start = System.nanoTime();
+            int code = writeRecoveryFile(snapshot, recoveryFile, saveFile);
+            writeMillis[0] = (System.nanoTime() - start) / 1_000_000;
+            return code;
+        }, code -> {
+            state.writing = false;
+            state.lastWrite = System.currentTimeMillis();  // a failed copy also waits a full interval before trying again
+            if(code != 1) {
+                System.out.println("there was an error writing the recovery file " + recoveryFile);
+                return;
+            }
+            state.writtenCount = snapshot.getModificationCount();
+            state.editsFrom = state.writtenCount;
+            state.writeMillis = writeMillis[0];
+            if(state.recoveryFile != null && !state.recoveryFile.equals(recoveryFile)) {  // the wbs was saved under a new name
+                deleteLater(state.recoveryFile);
+            }
+            state.recoveryFile = recoveryFile;
+            if(states.get(uid) != state) {  // closed while the copy was written
+                deleteLater(recoveryFile);
+            }
+        });
+    }
+
+
+    /**
+     * Writes a copy of every structure with unsaved changes on the calling thread once the io
+     * thread is idle. Used when the application is about to go down
+     */
+    public void saveAllNow() {
+        BackgroundIOHandler.waitForPendingJobs();  // a copy being written must not race this one
+        for(Map.Entry<Integer, WBSVisualTreeItem> structure : wbsHandler.getWBSs().entrySet()) {
+            WBSDocument document = structure.getValue().getDocument();
+            if(!document.isSaved()) {
+                File saveFile = wbsHandler.getWBSSaveFile(structure.getKey());
+                writeRecoveryFile(document.createSnapshot(), getRecoveryFile(structure.getKey(), saveFile), saveFile);
+            }
+        }
+    }
+
+
+    private File getRecoveryFile(int uid, File saveFile) {
+        return new File(RECOVERY_DIRECTORY, getBaseName(saveFile) + "-" + sessionId + "-" + uid + WBSBinaryFormat.EXTENSION);
+    }
+
+
+    private static String getBaseName(File saveFile) {
+        String name = ExportHandler.resolveSaveFile(saveFile).getName();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+
+    private static File getSourceRecord(File recoveryFile) {
+        return new File(recoveryFile.getPath() + SOURCE_EXTENSION);
+    }
+
+
+    /**
+     * Writes a snapshot to a recovery file along with the save file it belongs to
+     *
+     * @param snapshot     the snapshot to write
+     * @param recoveryFile the file to write it to
+     * @param saveFile     the save file of the wbs
+     * @return             1 on success, 0 on error
+     */
+    private static int writeRecoveryFile(WBSSnapshot snapshot, File recoveryFile, File saveFile) {
+        try {
+            Files.createDirectories(RECOVERY_DIRECTORY.toPath());
+            Files.write(getSourceRecord(recoveryFile).toPath(), saveFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+        } catch(IOException e) {
+            System.out.println(e);
+            e.printStackTrace();
+            return 0;
+        }
+        return ExportHandler.saveWBSToFile(snapshot, recoveryFile, ExportProgress.NONE);
+    }
+
+
+    /**
+     * Removes a recovery file on the io thread, after any copy still being written to it
+     */
+    private static void deleteLater(File recoveryFile) {
+        if(recoveryFile != null) {
+            BackgroundIOHandler.submit(progress -> deleteRecoveryFile(recoveryFile), code -> {});
+        }
+    }
+
+
+    /**
+     * Removes a recovery file and the record of which save file it belongs to
+     *
+     * @param recoveryFile the recovery file to remove
+     * @return             1 on success, 0 on error
+     */
+    public static int deleteRecoveryFile(File recoveryFile) {
+        try {
+            Files.deleteIfExists(recoveryFile.toPath());
+            Files.deleteIfExists(getSourceRecord(recoveryFile).toPath());
+            return 1;
+        } catch(IOException e) {
+            System.out.println(e);
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+
+    /**
+     * Returns the save file a recovery file was copied from. Copies of structures that were never
+     * saved belong to an untitled file
+     *
+     * @param recoveryFile the recovery file
+     * @return             the save file of the wbs in it
+     */
+    public static File getSourceFile(File recoveryFile) {
+        try {
+            return new File(new String(Files.readAllBytes(getSourceRecord(recoveryFile).toPath()), StandardCharsets.UTF_8));
+        } catch(IOException e) {
+            return new File("./untitled recovered");
+        }
+    }
+
+
+    /**
+     * Returns the newest recovery file of every save file, newest first. Copies that are older than
+     * their save file or than another copy of the same save file are removed
+     *
+     * @return the recovery files that can be recovered
+     */
+    public static ArrayList<File> getRecoveryFiles() {
+        File[] files = RECOVERY_DIRECTORY.listFiles((directory, name) -> name.endsWith(WBSBinaryFormat.EXTENSION));
+        if(files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+
+        LinkedHashMap<String, File> newest = new LinkedHashMap<>();
+        for(File file : files) {
+            File source = getSourceFile(file);
+            if(!source.isFile()) {  // never saved, every copy is a different wbs
+                newest.put(file.getAbsolutePath(), file);
+                continue;
+            }
+            long sourceModified = Math.max(source.lastModified(), WBSJournal.getJournalFile(source).lastModified());
+            if(sourceModified > file.lastModified() || newest.containsKey(source.getAbsolutePath())) {
+                deleteRecoveryFile(file);  // saved after the copy was made, or an older copy
+                continue;
+            }
+            newest.put(source.getAbsolutePath(), file);
+        }
+        return new ArrayList<>(newest.values());
+    }
+
+
+    /**
+     * Opens a recovery file as an unsaved wbs that belongs to its original save file. The
+     * recovery file is kept until the wbs is saved or closed
+     *
+     * @param recoveryFile the recovery file to open
+     * @return             the uid of the wbs in the wbs handler, null if the file could not be read
+     */
+    public Integer recover(File recoveryFile) {
+        WBSVisualTreeItem wbs = ImportHandler.readFile(recoveryFile);
+        if(wbs == null) {
+            return null;
+        }
+        wbs.updateShortNames();
+        wbs.getDocument().markUntrackedChanges();  // differs from its own file in ways the journal does not know about
+
+        int uid = wbsHandler.addWBS(wbs, getSourceFile(recoveryFile));
+        DocumentState state = new DocumentState(wbs.getDocument().getModificationCount(), false, System.currentTimeMillis());
+        state.writtenCount = state.seenCount;  // the recovery file already holds everything
+        state.editsFrom = state.seenCount;
+        state.recoveryFile = recoveryFile;
+        states.put(uid, state);
+
+        return uid;
+    }
+
+
+    /**
+     * Brings up a dialogue window that asks whether the user wants to recover unsaved changes
+     * from the last time the application ran
+     *
+     * @param recoveryFiles the recovery files from getRecoveryFiles
+     * @return              0 = discard, 1 = recover, 2 = decide later
+     */
+    static public Integer promptRecovery(ArrayList<File> recoveryFiles) {
+        AtomicReference<Integer> code = new AtomicReference<>();
+        code.set(2);  // default value
+        Stage window = new Stage();
+
+        String files = "";
+        for(File file : recoveryFiles) {
+            files += "\n    " + getSourceFile(file).getName();
+        }
+        Label prompt = new Label("Unsaved changes were found for:" + files + "\nWould you like to recover them?");
+
+        // Create Root window
+        window.initModality(Modality.APPLICATION_MODAL); //Block events to other windows
+        window.setTitle("WBS Editor");
+
+        HBox optionsArea = new HBox();
+        optionsArea.setAlignment(Pos.CENTER);
+        optionsArea.setSpacing(15);
+        optionsArea.setPadding(new Insets(10, 10, 10, 10));
+
+        Button recoverButton = new Button("Recover");
+        recoverButton.setOnAction(ee -> {
+            code.set(1);
+            window.close();
+        });
+
+        Button discardButton = new Button("Discard");
+        discardButton.setOnAction(ee -> {
+            code.set(0);
+            window.close();
+        });
+
+        Button laterButton = new Button("Not Now");
+        laterButton.setOnAction(ee -> {
+            code.set(2);
+            window.close();
+        });
+
+        optionsArea.getChildren().addAll(recoverButton, discardButton, laterButton);
+
+
+        VBox layout = new VBox(10);
+        layout.getChildren().addAll(prompt, optionsArea);
+        layout.setAlignment(Pos.CENTER);
+        layout.setPadding(new Insets(10, 10, 10, 10));
+        layout.setSpacing(10);
+
+
+        //Display window and wait for it to be closed before returning
+        Scene scene = new Scene(layout, 500, 125 + 20 * recoveryFiles.size());
+        window.setScene(scene);
+        window.showAndWait();
+
+        return code.get();
+    }
+}
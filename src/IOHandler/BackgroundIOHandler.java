@@ -0,0 +1,95 @@
+package IOHandler;
+
+import javafx.concurrent.Task;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+
+/**
+ * Runs saves and exports on a background thread so the editor stays responsive while large files
+ * are written. Jobs run one at a time in the order they were submitted so two saves of the same
+ * file can never interleave. Jobs work on a WBSSnapshot so they never read the live tree
+ *
+ * @author Aiden Carney
+ */
+public class BackgroundIOHandler {
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "WBS IO");
+        thread.setDaemon(true);  // pending jobs are waited for explicitly when the program closes
+        return thread;
+    });
+
+
+    /**
+     * A save or export to run in the background
+     */
+    public interface Job {
+        /**
+         * Does the work of the job
+         *
+         * @param progress used to report progress and check for cancellation
+         * @return         1 on success, 0 on error or if cancelled
+         */
+        int run(ExportProgress progress);
+    }
+
+
+    /**
+     * Runs a job and passes its progress on to the task so it can be shown on the application thread
+     */
+    private static class JobTask extends Task<Integer> implements ExportProgress {
+        private final Job job;
+
+        JobTask(Job job) {
+            this.job = job;
+        }
+
+        @Override
+        protected Integer call() {
+            return job.run(this);
+        }
+
+        @Override
+        public void update(long done, long total) {
+            updateProgress(done, total);
+        }
+    }
+
+
+    /**
+     * Queues a job to run in the background
+     *
+     * @param job    the job to run
+     * @param onDone called on the JavaFX application thread with the result of the job, 0 if it
+     *               failed or was cancelled
+     * @return       the task running the job, used to watch its progress or cancel it
+     */
+    public static Task<Integer> submit(Job job, Consumer<Integer> onDone) {
+        JobTask task = new JobTask(job);
+        task.setOnSucceeded(e -> onDone.accept(task.getValue()));
+        task.setOnFailed(e -> {
+            task.getException().printStackTrace();
+            onDone.accept(0);
+        });
+        task.setOnCancelled(e -> onDone.accept(0));
+
+        executor.submit(task);
+        return task;
+    }
+
+
+    /**
+     * Blocks until every job submitted so far has finished. Called before writing a file on the
+     * calling thread and before the program exits so that an older background save can not land
+     * on top of a newer file or be cut off half written
+     */
+    public static void waitForPendingJobs() {
+        try {
+            executor.submit(() -> {}).get();  // jobs run in order so this finishes after all of them
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
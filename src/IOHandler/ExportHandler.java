@@ -1,5 +1,7 @@
 package IOHandler;
 
+import WBSData.WBSNodeSnapshot;
+import WBSData.WBSSnapshot;
 import WBSData.WBSVisualTreeItem;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -14,19 +16,33 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.Window;
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.*;
-import org.jdom2.Document;
-import org.jdom2.Element;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 
@@ -38,6 +54,9 @@ import java.util.concurrent.atomic.AtomicReference;
  * @author Aiden Carney
  */
 public class ExportHandler {
+    private static final int SAVE_BUFFER_SIZE = 1 << 20;  // bytes gathered before each write to a binary save file
+    private static final int XLSX_ROW_WINDOW = 100;  // rows a streaming Excel export keeps in memory
+
     /**
      * Forces a file to have a specific extension. Returns a new file object with the specified extension.
      * Checks if the file absolute path ends with ".extension" and if not adds it
@@ -56,6 +75,39 @@ public class ExportHandler {
         return file;
     }
 
+    /**
+     * Returns the file a wbs is actually saved to. Binary files keep their name, anything else is
+     * saved as .wbs
+     *
+     * @param file the file chosen by the user
+     * @return     the file that gets written
+     */
+    static File resolveSaveFile(File file) {
+        if(file.getName().endsWith(WBSBinaryFormat.EXTENSION)) {
+            return file;
+        }
+        return forceExtension(file, ".wbs");
+    }
+
+    /**
+     * Returns the short names of the predecessors of a node separated by commas
+     *
+     * @param snapshot the snapshot the node is part of
+     * @param node     the node to list the predecessors of
+     * @return         the predecessor short names
+     */
+    static private String predecessorShortNames(WBSSnapshot snapshot, WBSNodeSnapshot node) {
+        StringBuilder predecessors = new StringBuilder();
+        for(int i = 0; i < node.getPredecessorCount(); i++) {
+            if(i > 0) {
+                predecessors.append(", ");
+            }
+            predecessors.append(snapshot.getShortName(node.getPredecessor(i)));
+        }
+        return predecessors.toString();
+    }
+
+
     /**
      * Saves a wbs to a csv file that includes the wbs metadata
      *
@@ -64,58 +116,54 @@ public class ExportHandler {
      * @return          1 on success, 0 on error
      */
     static public int exportWBSToCSV(WBSVisualTreeItem wbs, File file) {
+        return exportWBSToCSV(wbs.getDocument().createSnapshot(), file, ExportProgress.NONE);
+    }
+
+
+    /**
+     * Saves a snapshot of a wbs to a csv file that includes the wbs metadata. Only reads the
+     * snapshot so it can be called from a background thread
+     *
+     * @param snapshot the snapshot of the wbs to export
+     * @param file     the file to save the csv file to
+     * @param progress receives the number of rows written, nothing is written if it is cancelled
+     * @return         1 on success, 0 on error or if cancelled
+     */
+    static public int exportWBSToCSV(WBSSnapshot snapshot, File file, ExportProgress progress) {
         try {
-            String csv = "";
+            StringBuilder csv = new StringBuilder();
 
-            // create array of all elements
-            ArrayList<WBSVisualTreeItem> nodes = wbs.getTreeNodes();
-            int deepestLevel = 0;
-            for(WBSVisualTreeItem node : nodes) {
-                if(node.getLevel() > deepestLevel) {
-                    deepestLevel = node.getLevel();
+            int size = snapshot.size();
+            for(int rowIndex = 0; rowIndex < size; rowIndex++) {
+                if(progress.isCancelled()) {
+                    return 0;
                 }
-            }
-
-            int rowIndex = 0;
-            for(WBSVisualTreeItem node : nodes) {
-                String row = "";
-                if(node.getLevel() == 0) {
-                    row += "ID,Item Name,Duration (hrs),Person Duration Hours,Resources,Predecessors,Notes 1,Notes 2";
+                WBSNodeSnapshot node = snapshot.getNodeByShortName(rowIndex);
+                int level = snapshot.getLevel(rowIndex);
+                if(level == 0) {
+                    csv.append("ID,Item Name,Duration (hrs),Person Duration Hours,Resources,Predecessors,Notes 1,Notes 2");
                 } else {
-                    String predecessors = "";
-                    for(int uid : node.getPredecessors()) {
-                        predecessors += node.getNodeByUid(uid).getShortName() + ", ";
+                    csv.append(rowIndex).append(",");
+                    for(int i=0; i<level; i++) {
+                        csv.append("  ");
                     }
-                    if(node.getPredecessors().size() > 0) {  // remove last two characters of string because they will just be a string and a comma
-                        predecessors = predecessors.substring(0, predecessors.length() - 2);
-                    }
-
-                    String padding = "";
-                    for(int i=0; i<node.getLevel(); i++) {
-                        padding += "  ";
-                    }
-
-                    row += (rowIndex
-                            + "," + padding + node.getNodeName()
-                            + "," + node.getDuration()
-                            + "," + node.getPersonDuration()
-                            + "," + node.getResource()
-                            + "," + predecessors
-                            + "," + node.getNotes1()
-                            + "," + node.getNotes2()
-                            + "\n"
-                    );
+                    csv.append(node.getNodeName())
+                        .append(",").append(node.getDuration())
+                        .append(",").append(node.getPersonDuration())
+                        .append(",").append(node.getResource())
+                        .append(",").append(predecessorShortNames(snapshot, node))
+                        .append(",").append(node.getNotes1())
+                        .append(",").append(node.getNotes2())
+                        .append("\n");
                 }
-
-                csv += row;
-                rowIndex += 1;
+                progress.update(rowIndex + 1, size);
             }
 
             // write file
             file = forceExtension(file, ".csv");
             System.out.println("Exporting to " + file.getAbsolutePath());
             FileWriter writer = new FileWriter(file);
-            writer.write(csv);
+            writer.write(csv.toString());
             writer.close();
 
             return 1;
@@ -137,91 +185,101 @@ public class ExportHandler {
      * @return          1 on success, 0 on error
      */
     static public int exportWBSToXLSX(WBSVisualTreeItem wbs, File file) {
+        return exportWBSToXLSX(wbs.getDocument().createSnapshot(), file, ExportProgress.NONE);
+    }
+
+
+    /**
+     * Saves a snapshot of a wbs to an Excel Spreadsheet file. Only reads the snapshot so it can be
+     * called from a background thread. Streams the rows to the file so large exports do not have
+     * to fit in memory
+     *
+     * @param snapshot the snapshot of the wbs to export
+     * @param file     A File object of the location of the .xlsx file
+     * @param progress receives the number of rows written, nothing is written if it is cancelled
+     * @return         1 on success, 0 on error or if cancelled
+     */
+    static public int exportWBSToXLSX(WBSSnapshot snapshot, File file, ExportProgress progress) {
+        return exportWBSToXLSX(snapshot, file, true, progress);
+    }
+
+
+    /**
+     * Saves a snapshot of a wbs to an Excel Spreadsheet file. Only reads the snapshot so it can be
+     * called from a background thread. Rows with the same color share one cell style, and the
+     * widths of the data columns come from the longest text written to them
+     *
+     * @param snapshot  the snapshot of the wbs to export
+     * @param file      A File object of the location of the .xlsx file
+     * @param streaming true to keep only a window of rows in memory and write the rest to a
+     *                  temporary file as the rows are created, false to build the whole workbook
+     *                  in memory first
+     * @param progress  receives the number of rows written, nothing is written if it is cancelled
+     * @return          1 on success, 0 on error or if cancelled
+     */
+    static public int exportWBSToXLSX(WBSSnapshot snapshot, File file, boolean streaming, ExportProgress progress) {
+        Workbook workbook = streaming ? new SXSSFWorkbook(XLSX_ROW_WINDOW) : new XSSFWorkbook();
         try {
             // set up document
-            XSSFWorkbook workbook = new XSSFWorkbook();
             String safeName = WorkbookUtil.createSafeSheetName(file.getName().replaceFirst("[.][^.]+$", "")); // TODO: validate this regex
-            XSSFSheet sheet = workbook.createSheet(safeName);
-
+            Sheet sheet = workbook.createSheet(safeName);
 
-            // create array of all elements
-            ArrayList<WBSVisualTreeItem> nodes = wbs.getTreeNodes();
+            int size = snapshot.size();
             int deepestLevel = 0;
-            for(WBSVisualTreeItem node : nodes) {
-                if(node.getLevel() > deepestLevel) {
-                    deepestLevel = node.getLevel();
-                }
+            for(int i = 0; i < size; i++) {
+                deepestLevel = Math.max(deepestLevel, snapshot.getLevel(i));
             }
 //            deepestLevel += 1;  // add one so header appears after
 
-            int rowIndex = 0;
-            for(WBSVisualTreeItem node : nodes) {
+            DefaultIndexedColorMap colorMap = new DefaultIndexedColorMap();
+            HashMap<Integer, CellStyle> styles = new HashMap<>();  // one per color, a workbook can only hold so many styles
+            int[] columnLengths = new int[deepestLevel + 7];  // longest text in each column
+            for(int rowIndex = 0; rowIndex < size; rowIndex++) {
+                if(progress.isCancelled()) {
+                    return 0;
+                }
+                WBSNodeSnapshot node = snapshot.getNodeByShortName(rowIndex);
+                int level = snapshot.getLevel(rowIndex);
                 Row row = sheet.createRow(rowIndex);
-                if(node.getLevel() == 0) {
-                    row.createCell(0).setCellValue("ID");
-                    row.createCell(1).setCellValue("Item Name");
-                    row.createCell(deepestLevel + 1).setCellValue("Duration (hrs)");
-                    row.createCell(deepestLevel + 2).setCellValue("Person Duration Hours");
-                    row.createCell(deepestLevel + 3).setCellValue("Resources");
-                    row.createCell(deepestLevel + 4).setCellValue("Predecessors");
-                    row.createCell(deepestLevel + 5).setCellValue("Notes 1");
-                    row.createCell(deepestLevel + 6).setCellValue("Notes 2");
+                if(level == 0) {
+                    writeCell(row, 0, "ID", null, columnLengths);
+                    writeCell(row, 1, "Item Name", null, columnLengths);
+                    writeCell(row, deepestLevel + 1, "Duration (hrs)", null, columnLengths);
+                    writeCell(row, deepestLevel + 2, "Person Duration Hours", null, columnLengths);
+                    writeCell(row, deepestLevel + 3, "Resources", null, columnLengths);
+                    writeCell(row, deepestLevel + 4, "Predecessors", null, columnLengths);
+                    writeCell(row, deepestLevel + 5, "Notes 1", null, columnLengths);
+                    writeCell(row, deepestLevel + 6, "Notes 2", null, columnLengths);
                 } else {
-                    int beforePadding = node.getLevel();
+                    int beforePadding = level;
                     int afterPadding = deepestLevel;
 
                     Color cellColor = node.getNodeColor();
-                    XSSFCellStyle style = workbook.createCellStyle();
-                    style.setFillForegroundColor(new XSSFColor(new java.awt.Color((float) (cellColor.getRed()), (float) (cellColor.getGreen()), (float) (cellColor.getBlue())), new DefaultIndexedColorMap()));
-
-                    Cell cellShortName = row.createCell(0);
-                    cellShortName.setCellValue(rowIndex);
-                    cellShortName.setCellStyle(style);
-
-                    Cell cellName = row.createCell(beforePadding);
-                    cellName.setCellValue(node.getNodeName());
-                    cellName.setCellStyle(style);
-
-                    Cell cellDuration = row.createCell(afterPadding + 1);
-                    cellDuration.setCellValue(node.getDuration());
-                    cellDuration.setCellStyle(style);
-
-                    Cell cellPersonDuration = row.createCell(afterPadding + 2);
-                    cellPersonDuration.setCellValue(node.getPersonDuration());
-                    cellPersonDuration.setCellStyle(style);
-
-                    Cell cellResource = row.createCell(afterPadding + 3);
-                    cellResource.setCellValue(node.getResource());
-                    cellResource.setCellStyle(style);
-
-
-                    String predecessors = "";
-                    for(int uid : node.getPredecessors()) {
-                        predecessors += node.getNodeByUid(uid).getShortName() + ", ";
-                    }
-                    if(node.getPredecessors().size() > 0) {  // remove last two characters of string because they will just be a string and a comma
-                        predecessors = predecessors.substring(0, predecessors.length() - 2);
+                    int red = (int)( cellColor.getRed() * 255 + 0.5 );  // same rounding as java.awt.Color
+                    int green = (int)( cellColor.getGreen() * 255 + 0.5 );
+                    int blue = (int)( cellColor.getBlue() * 255 + 0.5 );
+                    CellStyle style = styles.get((red << 16) | (green << 8) | blue);
+                    if(style == null) {
+                        XSSFCellStyle colorStyle = (XSSFCellStyle) workbook.createCellStyle();
+                        colorStyle.setFillForegroundColor(new XSSFColor(new byte[] {(byte) red, (byte) green, (byte) blue}, colorMap));
+                        style = colorStyle;
+                        styles.put((red << 16) | (green << 8) | blue, style);
                     }
-                    Cell cellPredecessors = row.createCell(afterPadding + 4);
-                    cellPredecessors.setCellValue(predecessors);
-                    cellPredecessors.setCellStyle(style);
-
-
-                    Cell cellNotes1 = row.createCell(afterPadding + 5);
-                    cellNotes1.setCellValue(node.getNotes1());
-                    cellNotes1.setCellStyle(style);
-
-                    Cell cellNotes2 = row.createCell(afterPadding + 6);
-                    cellNotes2.setCellValue(node.getNotes2());
-                    cellNotes2.setCellStyle(style);
 
+                    writeCell(row, 0, rowIndex, style, columnLengths);
+                    writeCell(row, beforePadding, node.getNodeName(), style, columnLengths);
+                    writeCell(row, afterPadding + 1, node.getDuration(), style, columnLengths);
+                    writeCell(row, afterPadding + 2, node.getPersonDuration(), style, columnLengths);
+                    writeCell(row, afterPadding + 3, node.getResource(), style, columnLengths);
+                    writeCell(row, afterPadding + 4, predecessorShortNames(snapshot, node), style, columnLengths);
+                    writeCell(row, afterPadding + 5, node.getNotes1(), style, columnLengths);
+                    writeCell(row, afterPadding + 6, node.getNotes2(), style, columnLengths);
                 }
-
-                rowIndex += 1;
+                progress.update(rowIndex + 1, size);
             }
 
             for(int i=deepestLevel; i<=deepestLevel + 6; i++) {  // resize data starting from last name level to notes2
-                sheet.autoSizeColumn(i);
+                sheet.setColumnWidth(i, Math.min(columnLengths[i] + 2, 255) * 256);  // widths are in 1/256 of a character, 255 characters at most
             }
 
             for(int i=1; i<deepestLevel; i++) {  // make name columns short from start of node names to one before last node name
@@ -231,95 +289,379 @@ public class ExportHandler {
             // write file
             file = forceExtension(file, ".xlsx");
             System.out.println("Exporting to " + file.getAbsolutePath());
-            OutputStream fileOut = new FileOutputStream(file);
-            workbook.write(fileOut);
-            fileOut.close();
+            try(OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+                workbook.write(fileOut);
+            }
 
             return 1;
         } catch(Exception e) {  // TODO: add better error handling and bring up an alert box
             System.out.println(e);
             e.printStackTrace();
             return 0;  // 0 means there was an error somewhere
+        } finally {
+            if(streaming) {
+                ((SXSSFWorkbook) workbook).dispose();  // removes the temporary file the rows were streamed to
+            }
         }
     }
 
 
+    /**
+     * Writes a text cell and keeps track of the longest text in its column
+     *
+     * @param row           the row to add the cell to
+     * @param column        the column of the cell
+     * @param value         the text of the cell
+     * @param style         the style of the cell, null for the default style
+     * @param columnLengths the longest text written to each column so far
+     */
+    static private void writeCell(Row row, int column, String value, CellStyle style, int[] columnLengths) {
+        Cell cell = row.createCell(column);
+        cell.setCellValue(value);
+        if(style != null) {
+            cell.setCellStyle(style);
+        }
+        int length = 0;
+        for(String line : value.split("\n", -1)) {  // a cell is as wide as its longest line
+            length = Math.max(length, line.length());
+        }
+        columnLengths[column] = Math.max(columnLengths[column], length);
+    }
 
-    static private Element parseNodes(Element parentElement, WBSVisualTreeItem node) {
-        Element nodeElement = new Element("node");
-        nodeElement.addContent(new Element("name").setText(node.getNodeName()));
-        nodeElement.addContent(new Element("uid").setText(String.valueOf(node.getUid())));
-        nodeElement.addContent(new Element("duration").setText(String.valueOf(node.getDuration())));
-        nodeElement.addContent(new Element("resource").setText(node.getResource()));
-        nodeElement.addContent(new Element("notes1").setText(node.getNotes1()));
-        nodeElement.addContent(new Element("notes2").setText(node.getNotes2()));
-        Element childElement = new Element("children");
-        nodeElement.addContent(childElement);
 
-        ArrayList<Integer> predecessors = node.getPredecessors();
-        Element predecessorsElement = new Element("predecessors");
-        for(int predecessor : predecessors) {
-            predecessorsElement.addContent(new Element("predecessor").setText(String.valueOf(predecessor)));
+    /**
+     * Writes a number cell and keeps track of the longest text in its column
+     *
+     * @param row           the row to add the cell to
+     * @param column        the column of the cell
+     * @param value         the number in the cell
+     * @param style         the style of the cell, null for the default style
+     * @param columnLengths the longest text written to each column so far
+     */
+    static private void writeCell(Row row, int column, double value, CellStyle style, int[] columnLengths) {
+        Cell cell = row.createCell(column);
+        cell.setCellValue(value);
+        if(style != null) {
+            cell.setCellStyle(style);
+        }
+        int length;
+        if(value == Math.rint(value) && Math.abs(value) < 1e11) {  // shown without a decimal point
+            length = Long.toString((long) value).length();
+        } else {
+            length = Math.min(Double.toString(value).length(), 11);  // the general format shows at most 11 characters
         }
-        nodeElement.addContent(predecessorsElement);
+        columnLengths[column] = Math.max(columnLengths[column], length);
+    }
+
 
-        String color = String.format("#%02X%02X%02X",
-            (int)( node.getNodeColor().getRed() * 255 ),
-            (int)( node.getNodeColor().getGreen() * 255 ),
-            (int)( node.getNodeColor().getBlue() * 255 )
-        );
-        nodeElement.addContent(new Element("color").setText(color));
 
-        if(parentElement != null) {
-            parentElement.addContent(nodeElement);
+    /**
+     * Writes text with the characters that have a meaning in xml escaped
+     *
+     * @param out  the writer to write to
+     * @param text the text to write
+     */
+    static private void writeEscaped(Writer out, String text) throws IOException {
+        int start = 0;  // first character that has not been written yet
+        for(int i = 0; i < text.length(); i++) {
+            String escaped;
+            switch(text.charAt(i)) {
+                case '&': escaped = "&amp;"; break;
+                case '<': escaped = "&lt;"; break;
+                case '>': escaped = "&gt;"; break;
+                case '\r': escaped = "&#xD;"; break;  // would be read back as a line feed otherwise
+                default: continue;
+            }
+            out.write(text, start, i - start);
+            out.write(escaped);
+            start = i + 1;
+        }
+        out.write(text, start, text.length() - start);
+    }
+
+
+    /**
+     * Writes an element that only holds text. Empty text is written as an empty element
+     *
+     * @param out    the writer to write to
+     * @param indent the whitespace to put before the element, empty for compact output
+     * @param tag    the name of the element
+     * @param text   the text of the element
+     */
+    static private void writeTextElement(Writer out, String indent, String tag, String text) throws IOException {
+        out.write(indent);
+        out.write('<');
+        out.write(tag);
+        if(text == null || text.isEmpty()) {
+            out.write(" />");
         } else {
-            parentElement = nodeElement;
+            out.write('>');
+            writeEscaped(out, text);
+            out.write("</");
+            out.write(tag);
+            out.write('>');
         }
+    }
 
-        if(!node.getChildren().isEmpty()) {  // parse children nodes
-            for(WBSVisualTreeItem child : node.getChildren()) {
-                parseNodes(childElement, child);
-            }
+
+    /**
+     * Writes the values of a node that come before its children and starts its children element
+     */
+    static private void writeNodeStart(Writer out, WBSNodeSnapshot node, String indent, String childIndent) throws IOException {
+        out.write(indent);
+        out.write("<node>");
+        writeTextElement(out, childIndent, "name", node.getNodeName());
+        writeTextElement(out, childIndent, "uid", String.valueOf(node.getUid()));
+        writeTextElement(out, childIndent, "duration", String.valueOf(node.getDuration()));
+        writeTextElement(out, childIndent, "resource", node.getResource());
+        writeTextElement(out, childIndent, "notes1", node.getNotes1());
+        writeTextElement(out, childIndent, "notes2", node.getNotes2());
+        out.write(childIndent);
+        out.write(node.isLeaf() ? "<children />" : "<children>");
+    }
+
+
+    /**
+     * Ends the children element of a node and writes the values that come after it
+     */
+    static private void writeNodeEnd(Writer out, WBSNodeSnapshot node, String indent, String childIndent) throws IOException {
+        if(!node.isLeaf()) {
+            out.write(childIndent);
+            out.write("</children>");
+        }
+
+        out.write(childIndent);
+        if(node.getPredecessorCount() == 0) {
+            out.write("<predecessors />");
         } else {
-            return null;  // no return value needed
+            out.write("<predecessors>");
+            String predecessorIndent = childIndent.isEmpty() ? "" : childIndent + "  ";
+            for(int i = 0; i < node.getPredecessorCount(); i++) {
+                writeTextElement(out, predecessorIndent, "predecessor", String.valueOf(node.getPredecessor(i)));
+            }
+            out.write(childIndent);
+            out.write("</predecessors>");
         }
 
+        Color color = node.getNodeColor();
+        char[] hex = new char[7];
+        hex[0] = '#';
+        writeHexByte(hex, 1, color.getRed());
+        writeHexByte(hex, 3, color.getGreen());
+        writeHexByte(hex, 5, color.getBlue());
+        out.write(childIndent);
+        out.write("<color>");
+        out.write(hex);
+        out.write("</color>");
+
+        out.write(indent);
+        out.write("</node>");
+    }
+
 
-        return parentElement;
+    /**
+     * Puts a color component as two upper case hex digits, the same as formatting it with %02X
+     */
+    static private void writeHexByte(char[] hex, int index, double component) {
+        int value = (int)( component * 255 );
+        hex[index] = Character.toUpperCase(Character.forDigit((value >> 4) & 0xF, 16));
+        hex[index + 1] = Character.toUpperCase(Character.forDigit(value & 0xF, 16));
     }
 
+
+    /**
+     * Writes the xml for a snapshot node by node as the tree is walked, so nothing but the path
+     * from the root to the current node is held in memory. Walks the tree with a stack instead of
+     * recursion so that deep trees do not overflow the call stack
+     *
+     * @param snapshot the snapshot of the wbs
+     * @param out      the writer to write to
+     * @param compact  true to leave out the line breaks and indentation
+     * @param progress receives the number of nodes written
+     * @return         true if every node was written, false if the progress was cancelled
+     */
+    static private boolean writeNodes(WBSSnapshot snapshot, Writer out, boolean compact, ExportProgress progress) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+
+        ArrayList<String> indents = new ArrayList<>();  // indents.get(i) is the whitespace before an element at depth i
+        indents.add(compact ? "" : "\n");
+        int size = snapshot.size();
+        int done = 0;
+
+        ArrayDeque<WBSNodeSnapshot> nodes = new ArrayDeque<>();  // path from the root to the current node
+        int[] nextChild = new int[16];                          // index of the next child to write for each node on the path
+        nodes.push(snapshot.getRoot());
+        writeNodeStart(out, snapshot.getRoot(), indent(indents, 0), indent(indents, 1));
+        while(!nodes.isEmpty()) {
+            if(progress.isCancelled()) {
+                return false;
+            }
+            WBSNodeSnapshot node = nodes.peek();
+            int depth = nodes.size() - 1;
+            if(nextChild[depth] < node.getChildCount()) {
+                WBSNodeSnapshot child = node.getChild(nextChild[depth]);
+                nextChild[depth] += 1;
+                if(depth + 1 == nextChild.length) {
+                    nextChild = Arrays.copyOf(nextChild, nextChild.length * 2);
+                }
+                nextChild[depth + 1] = 0;
+                nodes.push(child);
+                writeNodeStart(out, child, indent(indents, 2 * depth + 2), indent(indents, 2 * depth + 3));  // each level is inside a node and a children element
+            } else {
+                writeNodeEnd(out, node, indent(indents, 2 * depth), indent(indents, 2 * depth + 1));
+                nodes.pop();
+                done += 1;
+                progress.update(done, size);
+            }
+        }
+        out.write(compact ? "" : "\n");
+
+        return true;
+    }
+
+
+    /**
+     * Returns the whitespace before an element at a depth, creating it the first time that depth
+     * is reached so the strings are shared by every element at the same depth
+     */
+    static private String indent(ArrayList<String> indents, int depth) {
+        while(indents.size() <= depth) {
+            String last = indents.get(indents.size() - 1);
+            indents.add(last.isEmpty() ? "" : last + "  ");
+        }
+        return indents.get(depth);
+    }
+
+
     /**
      * Saves the wbs to an xml file specified by the caller of the function. Clears
-     * the wbs's wasModifiedFlag
+     * the wbs's modified state
      *
      * @param wbs       the wbs to save
      * @param file      the file to save the wbs to
      * @return          1 on success, 0 on error
      */
     static public int saveWBSToFile(WBSVisualTreeItem wbs, File file) {
-        try {
-            file = forceExtension(file, ".wbs");
+        BackgroundIOHandler.waitForPendingJobs();  // an older save still queued must not overwrite this one
+        WBSSnapshot snapshot = wbs.getDocument().createSnapshot();
+        int code = saveWBSToFile(snapshot, file, ExportProgress.NONE);
+        if(code == 1) {
+            wbs.getDocument().markSaved(snapshot.getModificationCount());
+        }
+        return code;
+    }
 
-            Element rootXMLNode = parseNodes(null, wbs);
-            Document doc = new Document(rootXMLNode);
 
-            XMLOutputter xmlOutput = new XMLOutputter();
-            xmlOutput.setFormat(Format.getPrettyFormat());  // TODO: change this to getCompactFormat() for release
-            xmlOutput.output(doc, new FileOutputStream(file));
+    /**
+     * Saves a snapshot of a wbs to an xml file. Only reads the snapshot so it can be called from a
+     * background thread. Does not change the modified state of the wbs, the caller does that with
+     * the modification count of the snapshot once the save succeeded
+     *
+     * @param snapshot the snapshot of the wbs to save
+     * @param file     the file to save the wbs to
+     * @param progress receives the number of nodes written, nothing is written if it is cancelled
+     * @return         1 on success, 0 on error or if cancelled
+     */
+    static public int saveWBSToFile(WBSSnapshot snapshot, File file, ExportProgress progress) {
+        return saveWBSToFile(snapshot, file, false, progress);  // TODO: change this to compact for release
+    }
+
 
-            for(WBSVisualTreeItem node : wbs.getTreeNodes()) {
-                node.setWasModified(false);
+    /**
+     * Saves a snapshot of a wbs to an xml file, or to a binary file if the file name ends with
+     * .wbsb. The xml is written as the tree is walked so the memory used does not depend on the size
+     * of the wbs. The file is first written next to the save file and only replaces it once it is
+     * complete, so a cancelled or failed save leaves the old file as it was
+     *
+     * @param snapshot the snapshot of the wbs to save
+     * @param file     the file to save the wbs to
+     * @param compact  true to write the xml without line breaks and indentation, has no effect on
+     *                 binary files
+     * @param progress receives the number of nodes written, nothing is written if it is cancelled
+     * @return         1 on success, 0 on error or if cancelled
+     */
+    static public int saveWBSToFile(WBSSnapshot snapshot, File file, boolean compact, ExportProgress progress) {
+        boolean binary = file.getName().endsWith(WBSBinaryFormat.EXTENSION);
+        file = resolveSaveFile(file);
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        try {
+            boolean written;
+            try(SyncingOutputStream fileOut = new SyncingOutputStream(new FileOutputStream(tempFile))) {
+                if(binary) {
+                    OutputStream out = new BufferedOutputStream(fileOut, SAVE_BUFFER_SIZE);  // strings are written one at a time
+                    written = WBSBinaryFormat.write(snapshot, out, progress);
+                    out.flush();
+                } else {
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8), 1 << 16);
+                    written = writeNodes(snapshot, writer, compact, progress);
+                    writer.flush();
+                }
+                if(written) {
+                    fileOut.sync();  // the new file is on disk before it replaces the old one
+                }
             }
+            if(!written) {  // cancelled
+                Files.deleteIfExists(tempFile.toPath());
+                return 0;
+            }
+            replaceFile(tempFile, file);
+            WBSJournal.delete(file);  // the changes in it are now part of the file
 
             return 1;  // file was successfully saved
         } catch(Exception e) {  // TODO: add better error handling and bring up an alert box
             System.out.println(e);
             e.printStackTrace();
+            tempFile.delete();
             return 0;  // 0 means there was an error somewhere
         }
     }
 
 
+    /**
+     * Replaces a file with a completely written file next to it. The rename is atomic where the
+     * file system supports it so the file is always either the old or the new version, then the
+     * directory is synced so the rename itself is not lost in a crash
+     *
+     * @param tempFile the new version of the file, synced to disk
+     * @param file     the file to replace
+     */
+    static private void replaceFile(File tempFile, File file) throws IOException {
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch(AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        try(FileChannel directory = FileChannel.open(file.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch(IOException e) {
+            // directories can not be opened on every platform, the file has still been replaced
+        }
+    }
+
+
+    /**
+     * Saves the changes made to a wbs since it was last saved by appending them to the journal of
+     * the save file. The whole file is written instead when it does not exist yet or when the
+     * journal has grown big enough to be folded back into it. Only reads its arguments so it can be
+     * called from a background thread
+     *
+     * @param snapshot the snapshot of the wbs, written if the whole file is saved
+     * @param changes  the changes from WBSJournal.createBatch taken at the same time as the snapshot
+     * @param file     the file the wbs was read from or last saved to
+     * @param progress receives the number of nodes written, nothing is written if it is cancelled
+     * @return         1 on success, 0 on error or if cancelled
+     */
+    static public int saveWBSIncrementally(WBSSnapshot snapshot, byte[] changes, File file, ExportProgress progress) {
+        if(!WBSJournal.canAppend(file)) {
+            return saveWBSToFile(snapshot, file, progress);
+        }
+        if(progress.isCancelled()) {
+            return 0;
+        }
+        return WBSJournal.append(changes, file);
+    }
+
+
 
     /**
      * Brings up a dialogue window that asks whether the user wants to save a file or not.
@@ -0,0 +1,40 @@
+package IOHandler;
+
+
+/**
+ * Lets a long running save or export report how far along it is and find out if it should stop
+ *
+ * @author Aiden Carney
+ */
+public interface ExportProgress {
+    /**
+     * Used when nothing is watching the progress
+     */
+    ExportProgress NONE = new ExportProgress() {
+        @Override
+        public void update(long done, long total) {}
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+
+    /**
+     * Reports how much of the work is done
+     *
+     * @param done  the amount of work finished
+     * @param total the total amount of work
+     */
+    void update(long done, long total);
+
+
+    /**
+     * Returns whether or not the work should stop. Checked between rows so that stopping does not
+     * leave a half written row behind
+     *
+     * @return true if the caller cancelled the work
+     */
+    boolean isCancelled();
+}
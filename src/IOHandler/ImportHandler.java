@@ -1,11 +1,20 @@
 package IOHandler;
 
 import WBSData.WBSVisualTreeItem;
+import javafx.scene.paint.Color;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.input.SAXBuilder;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 
 /**
@@ -15,26 +24,58 @@ import java.io.File;
  * @author Aiden Carney
  */
 public class ImportHandler {
-    static private WBSVisualTreeItem parseNodes(WBSVisualTreeItem parentNode, Element element) {
+    /**
+     * The values of a node element that have been read so far. The node itself is created once its
+     * children start or its element ends, whichever comes first
+     */
+    private static class PendingNode {
+        String name = "";
+        int uid;
+        String color;
+        double duration;
+        String resource = "";
+        String notes1 = "";
+        String notes2 = "";
+        ArrayList<Integer> predecessors;
+        final PendingNode parent;  // null for the root
+        WBSVisualTreeItem node;
+
+        PendingNode(PendingNode parent) {
+            this.parent = parent;
+        }
+
+        WBSVisualTreeItem create() {
+            node = new WBSVisualTreeItem(name, uid, color != null ? color : "#FFFFFF");
+            node.setParent(parent == null ? null : parent.node);
+            node.setDuration(duration);
+            node.setResource(resource);
+            node.setNotes1(notes1);
+            node.setNotes2(notes2);
+            return node;
+        }
+    }
+
+
+    static private WBSVisualTreeItem parseNodes(WBSVisualTreeItem parentNode, Element element, HashMap<WBSVisualTreeItem, ArrayList<Integer>> predecessors) {
         WBSVisualTreeItem n = new WBSVisualTreeItem(element.getChild("name").getText(), Integer.parseInt(element.getChild("uid").getText()), element.getChild("color").getText());
         n.setParent(parentNode);
         n.setDuration(Double.parseDouble(element.getChild("duration").getText()));
         n.setResource(element.getChild("resource").getText());
         n.setNotes1(element.getChild("notes1").getText());
         n.setNotes2(element.getChild("notes2").getText());
-        if(!element.getChild("predecessors").getChildren().isEmpty()) {
+        if(!element.getChild("predecessors").getChildren().isEmpty()) {  // predecessors are linked once every node exists
+            ArrayList<Integer> uids = new ArrayList<>();
             for(Element predecessor : element.getChild("predecessors").getChildren()) {
-                n.addPredecessor(Integer.parseInt(predecessor.getText()));
+                uids.add(Integer.parseInt(predecessor.getText()));
             }
+            predecessors.put(n, uids);
         }
 
         if(!element.getChild("children").getChildren().isEmpty()) {  // parse children nodes
             for(Element child : element.getChild("children").getChildren()) {
-                parseNodes(n, child);
-                n.setWasModified(false);
+                parseNodes(n, child, predecessors);
             }
         } else {
-            n.setWasModified(false);
             return null;  // no return value needed
         }
 
@@ -42,18 +83,158 @@ public class ImportHandler {
     }
 
     /**
-     * Reads an xml file and parses it into the tree structure. Returns the root node
+     * Reads a wbs file and parses it into the tree structure. Returns the root node. Binary files
+     * are recognized by their magic number, anything else is read as xml. Changes saved to the
+     * journal of the file are applied on top of it
      *
      * @param fileName the file location to read from
      * @return         WBSVisualTreeItem root node of the parsed in structure
      */
     static public WBSVisualTreeItem readFile(File fileName) {
+        WBSVisualTreeItem rootNode;
+        try {
+            boolean binary;
+            try(InputStream in = new FileInputStream(fileName)) {
+                binary = WBSBinaryFormat.hasMagicNumber(in);
+            }
+            rootNode = binary ? WBSBinaryFormat.read(fileName) : readXMLFile(fileName);
+            if(rootNode != null) {
+                WBSJournal.replay(rootNode, fileName);
+            }
+        } catch(Exception e) {
+            // TODO: add alert box that says the file was corrupted in some way and could not be read in
+            System.out.println("Error reading file");
+            System.out.println(e);
+            e.printStackTrace();
+            return null;
+        }
+
+        return rootNode;
+    }
+
+
+    /**
+     * Reads an xml file and parses it into the tree structure. Returns the root node. Nodes are
+     * built while the file is streamed in so the whole xml document is never held in memory
+     *
+     * @param fileName the file location to read from
+     * @return         WBSVisualTreeItem root node of the parsed in structure
+     */
+    static public WBSVisualTreeItem readXMLFile(File fileName) {
+        try(InputStream in = new BufferedInputStream(new FileInputStream(fileName), 1 << 16)) {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);  // wbs files never reference other files
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+
+            WBSVisualTreeItem rootNode = null;
+            PendingNode pending = null;  // the innermost node element that has not ended
+            ArrayList<PendingNode> predecessors = new ArrayList<>();  // linked once every node exists
+            try {
+                while(reader.hasNext()) {
+                    if(reader.next() != XMLStreamConstants.START_ELEMENT && reader.getEventType() != XMLStreamConstants.END_ELEMENT) {
+                        continue;
+                    }
+                    String tag = reader.getLocalName();
+
+                    if(reader.getEventType() == XMLStreamConstants.END_ELEMENT) {
+                        if(tag.equals("node")) {
+                            if(pending.node == null) {  // a node without a children element
+                                pending.create();
+                                if(pending.parent == null) {
+                                    rootNode = pending.node;
+                                }
+                            }
+                            if(pending.predecessors != null) {
+                                predecessors.add(pending);
+                            }
+                            pending = pending.parent;
+                        }
+                        continue;
+                    }
+
+                    if(tag.equals("node")) {
+                        pending = new PendingNode(pending);
+                    } else if(pending == null) {
+                        continue;  // nothing is read outside of the root node
+                    } else if(tag.equals("children")) {
+                        if(pending.node == null) {  // the values of a node are written before its children
+                            pending.create();
+                            if(pending.parent == null) {
+                                rootNode = pending.node;
+                                rootNode.getDocument().beginTransaction();  // durations are summed once at the end
+                            }
+                        }
+                    } else if(tag.equals("predecessor")) {
+                        if(pending.predecessors == null) {
+                            pending.predecessors = new ArrayList<>();
+                        }
+                        pending.predecessors.add(Integer.parseInt(reader.getElementText().trim()));
+                    } else if(tag.equals("color")) {
+                        pending.color = reader.getElementText();
+                        if(pending.node != null) {  // the color is written after the children
+                            pending.node.setNodeColor(Color.web(pending.color));
+                        }
+                    } else if(tag.equals("name")) {
+                        pending.name = reader.getElementText();
+                    } else if(tag.equals("uid")) {
+                        pending.uid = Integer.parseInt(reader.getElementText().trim());
+                    } else if(tag.equals("duration")) {
+                        pending.duration = Double.parseDouble(reader.getElementText());
+                    } else if(tag.equals("resource")) {
+                        pending.resource = reader.getElementText();
+                    } else if(tag.equals("notes1")) {
+                        pending.notes1 = reader.getElementText();
+                    } else if(tag.equals("notes2")) {
+                        pending.notes2 = reader.getElementText();
+                    }
+                }
+            } finally {
+                reader.close();
+                if(rootNode != null && rootNode.getDocument().isInTransaction()) {
+                    rootNode.getDocument().commitTransaction();
+                }
+            }
+
+            for(PendingNode linked : predecessors) {
+                for(int uid : linked.predecessors) {
+                    linked.node.addPredecessor(uid);  // links to uids that are not in the file are dropped
+                }
+            }
+            rootNode.getDocument().markSaved();  // nothing has changed since the file was read
+
+            return rootNode;
+        } catch(Exception e) {
+            // TODO: add alert box that says the file was corrupted in some way and could not be read in
+            System.out.println("Error reading file");
+            System.out.println(e);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+
+    /**
+     * Reads an xml file by loading the whole document with JDOM first and then parsing it into the
+     * tree structure. Gives the same tree as readFile but takes more time and memory
+     *
+     * @param fileName the file location to read from
+     * @return         WBSVisualTreeItem root node of the parsed in structure
+     */
+    static public WBSVisualTreeItem readFileWithDOM(File fileName) {
         try {
             SAXBuilder saxBuilder = new SAXBuilder();
             Document document = saxBuilder.build(fileName);  // read file into memory
             Element rootElement = document.getRootElement();
 
-            WBSVisualTreeItem rootNode = parseNodes(null, rootElement);
+            HashMap<WBSVisualTreeItem, ArrayList<Integer>> predecessors = new HashMap<>();
+            WBSVisualTreeItem rootNode = parseNodes(null, rootElement, predecessors);
+            for(HashMap.Entry<WBSVisualTreeItem, ArrayList<Integer>> entry : predecessors.entrySet()) {
+                for(int uid : entry.getValue()) {
+                    entry.getKey().addPredecessor(uid);  // links to uids that are not in the file are dropped
+                }
+            }
+            rootNode.getDocument().markSaved();  // nothing has changed since the file was read
 
             return rootNode;
         } catch(Exception e) {
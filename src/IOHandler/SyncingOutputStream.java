@@ -0,0 +1,107 @@
+package IOHandler;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * A file output stream for save files that gets the data onto the disk while the rest of the file
+ * is still being written. Every few megabytes the part written so far is flushed to disk on a
+ * separate thread, so the sync at the end of a save only waits for the last part instead of the
+ * whole file
+ *
+ * @author Aiden Carney
+ */
+class SyncingOutputStream extends OutputStream {
+    private static final long SYNC_INTERVAL = 8 << 20;  // bytes written between background syncs
+    private static final ExecutorService syncThread = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "WBS Sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FileOutputStream out;
+    private long unsyncedBytes = 0;
+    private Future<?> pendingSync = null;
+
+
+    /**
+     * Creates a stream that writes to a file
+     *
+     * @param out the file to write to, closed with this stream
+     */
+    SyncingOutputStream(FileOutputStream out) {
+        this.out = out;
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        countWritten(1);
+    }
+
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        countWritten(length);
+    }
+
+
+    private void countWritten(long bytes) {
+        unsyncedBytes += bytes;
+        if(unsyncedBytes >= SYNC_INTERVAL && (pendingSync == null || pendingSync.isDone())) {  // skipped while the last one is still running
+            unsyncedBytes = 0;
+            FileChannel channel = out.getChannel();
+            pendingSync = syncThread.submit(() -> {
+                channel.force(false);
+                return null;
+            });
+        }
+    }
+
+
+    /**
+     * Blocks until everything written to the stream is on the disk
+     */
+    public void sync() throws IOException {
+        flush();
+        waitForPendingSync();
+        out.getFD().sync();
+    }
+
+
+    private void waitForPendingSync() throws IOException {
+        if(pendingSync == null) {
+            return;
+        }
+        try {
+            pendingSync.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while syncing a save file");
+        } catch(ExecutionException e) {
+            throw new IOException("could not sync a save file", e.getCause());
+        } finally {
+            pendingSync = null;
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        try {
+            waitForPendingSync();  // the file can not be closed under a running sync
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package IOHandler;
+
+import WBSData.WBSNodeSnapshot;
+import WBSData.WBSSnapshot;
+import WBSData.WBSVisualTreeItem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+
+/**
+ * Reads and writes the binary wbs format (.wbsb). The file starts with a magic number and a
+ * version followed by a table of every distinct string and then one array per value with an entry
+ * for each node in pre-order. All numbers are big endian
+ *
+ * <pre>
+ * int      magic "WBSB"
+ * int      version
+ * int      node count, string count, predecessor count
+ * strings  for each string an int byte length and the UTF-8 bytes
+ * int[]    uids
+ * int[]    child counts, rebuilds the tree from the pre-order
+ * double[] durations
+ * int[]    names, resources, notes1, notes2 as indices into the string table
+ * int[]    colors as 0xRRGGBB
+ * int[]    predecessor counts
+ * int[]    predecessor uids of every node one after another
+ * </pre>
+ *
+ * @author Aiden Carney
+ */
+public class WBSBinaryFormat {
+    public static final String EXTENSION = ".wbsb";
+    private static final int MAGIC = 0x57425342;  // "WBSB"
+    private static final int VERSION = 1;
+
+
+    /**
+     * Returns whether or not a stream starts with the magic number of the binary format. Reads at
+     * most four bytes from the stream
+     *
+     * @param in the stream to check
+     * @return   true if the data is in the binary format
+     */
+    public static boolean hasMagicNumber(InputStream in) throws IOException {
+        int magic = 0;
+        for(int i = 0; i < 4; i++) {
+            int b = in.read();
+            if(b == -1) {
+                return false;
+            }
+            magic = (magic << 8) | b;
+        }
+        return magic == MAGIC;
+    }
+
+
+    /**
+     * Writes a snapshot in the binary format
+     *
+     * @param snapshot the snapshot of the wbs to write
+     * @param out      the stream to write to
+     * @param progress receives the number of nodes written
+     * @return         true if the whole snapshot was written, false if the progress was cancelled
+     */
+    public static boolean write(WBSSnapshot snapshot, OutputStream out, ExportProgress progress) throws IOException {
+        int size = snapshot.size();
+
+        // number every distinct string once so repeated resources and empty notes cost four bytes
+        HashMap<String, Integer> stringIndices = new HashMap<>();
+        ArrayList<String> strings = new ArrayList<>();
+        int[] names = new int[size];
+        int[] resources = new int[size];
+        int[] notes1 = new int[size];
+        int[] notes2 = new int[size];
+        int predecessorCount = 0;
+        for(int i = 0; i < size; i++) {
+            if(progress.isCancelled()) {
+                return false;
+            }
+            WBSNodeSnapshot node = snapshot.getNodeByShortName(i);
+            names[i] = stringIndex(node.getNodeName(), stringIndices, strings);
+            resources[i] = stringIndex(node.getResource(), stringIndices, strings);
+            notes1[i] = stringIndex(node.getNotes1(), stringIndices, strings);
+            notes2[i] = stringIndex(node.getNotes2(), stringIndices, strings);
+            predecessorCount += node.getPredecessorCount();
+        }
+
+        ByteBuffer chunk = ByteBuffer.allocate(1 << 16);  // values are gathered here and written a chunk at a time
+        putInt(out, chunk, MAGIC);
+        putInt(out, chunk, VERSION);
+        putInt(out, chunk, size);
+        putInt(out, chunk, strings.size());
+        putInt(out, chunk, predecessorCount);
+        for(String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            putInt(out, chunk, bytes.length);
+            flush(out, chunk);
+            out.write(bytes);
+        }
+
+        for(int i = 0; i < size; i++) {
+            putInt(out, chunk, snapshot.getNodeByShortName(i).getUid());
+        }
+        for(int i = 0; i < size; i++) {
+            putInt(out, chunk, snapshot.getNodeByShortName(i).getChildCount());
+        }
+        for(int i = 0; i < size; i++) {
+            if(chunk.remaining() < 8) {
+                flush(out, chunk);
+            }
+            chunk.putDouble(snapshot.getNodeByShortName(i).getDuration());
+        }
+        for(int[] column : new int[][] {names, resources, notes1, notes2}) {
+            for(int index : column) {
+                putInt(out, chunk, index);
+            }
+        }
+        for(int i = 0; i < size; i++) {
+            WBSNodeSnapshot node = snapshot.getNodeByShortName(i);
+            int red = (int)( node.getNodeColor().getRed() * 255 );  // same rounding as the hex colors in xml files
+            int green = (int)( node.getNodeColor().getGreen() * 255 );
+            int blue = (int)( node.getNodeColor().getBlue() * 255 );
+            putInt(out, chunk, (red << 16) | (green << 8) | blue);
+        }
+        for(int i = 0; i < size; i++) {
+            putInt(out, chunk, snapshot.getNodeByShortName(i).getPredecessorCount());
+        }
+        for(int i = 0; i < size; i++) {
+            if(progress.isCancelled()) {
+                return false;
+            }
+            WBSNodeSnapshot node = snapshot.getNodeByShortName(i);
+            for(int j = 0; j < node.getPredecessorCount(); j++) {
+                putInt(out, chunk, node.getPredecessor(j));
+            }
+            progress.update(i + 1, size);
+        }
+        flush(out, chunk);
+
+        return true;
+    }
+
+
+    private static void putInt(OutputStream out, ByteBuffer chunk, int value) throws IOException {
+        if(chunk.remaining() < 4) {
+            flush(out, chunk);
+        }
+        chunk.putInt(value);
+    }
+
+
+    private static void flush(OutputStream out, ByteBuffer chunk) throws IOException {
+        out.write(chunk.array(), 0, chunk.position());
+        chunk.clear();
+    }
+
+
+    private static int stringIndex(String string, HashMap<String, Integer> stringIndices, ArrayList<String> strings) {
+        if(string == null) {
+            string = "";
+        }
+        Integer index = stringIndices.get(string);
+        if(index == null) {
+            index = strings.size();
+            stringIndices.put(string, index);
+            strings.add(string);
+        }
+        return index;
+    }
+
+
+    /**
+     * Reads a file in the binary format. The file is mapped into memory and each array is read
+     * with a single bulk copy
+     *
+     * @param file the file to read
+     * @return     the root node of the tree
+     */
+    public static WBSVisualTreeItem read(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());  // stays valid after the channel closes
+        }
+
+        if(buffer.remaining() < 20 || buffer.getInt() != MAGIC) {
+            throw new IOException("not a binary wbs file");
+        }
+        int version = buffer.getInt();
+        if(version != VERSION) {
+            throw new IOException("unsupported binary wbs version " + version);
+        }
+        int size = buffer.getInt();
+        int stringCount = buffer.getInt();
+        int predecessorCount = buffer.getInt();
+        if(size <= 0 || stringCount < 0 || predecessorCount < 0 || (long) stringCount * 4 > buffer.remaining()) {
+            throw new IOException("corrupted binary wbs file");
+        }
+
+        String[] strings = new String[stringCount];
+        for(int i = 0; i < stringCount; i++) {
+            int length = buffer.getInt();
+            if(length < 0 || length > buffer.remaining()) {
+                throw new IOException("corrupted binary wbs file");
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        if((long) size * 40 + (long) predecessorCount * 4 > buffer.remaining()) {  // eight int columns and a double column
+            throw new IOException("corrupted binary wbs file");
+        }
+        int[] uids = readInts(buffer, size);
+        int[] childCounts = readInts(buffer, size);
+        double[] durations = new double[size];
+        buffer.asDoubleBuffer().get(durations);
+        buffer.position(buffer.position() + size * 8);
+        int[] names = readInts(buffer, size);
+        int[] resources = readInts(buffer, size);
+        int[] notes1 = readInts(buffer, size);
+        int[] notes2 = readInts(buffer, size);
+        int[] colors = readInts(buffer, size);
+        int[] predecessorCounts = readInts(buffer, size);
+        int[] predecessors = readInts(buffer, predecessorCount);
+
+        for(int[] column : new int[][] {names, resources, notes1, notes2}) {
+            for(int index : column) {
+                if(index < 0 || index >= stringCount) {
+                    throw new IOException("corrupted binary wbs file");
+                }
+            }
+        }
+
+        // rebuild the tree from the pre-order, parents are created before their children the same
+        // way the xml reader does it so both give the same tree
+        WBSVisualTreeItem[] nodes = new WBSVisualTreeItem[size];
+        WBSVisualTreeItem[] parents = new WBSVisualTreeItem[size];  // path from the root to the node being filled
+        int[] remainingChildren = new int[size];
+        int depth = -1;
+        WBSVisualTreeItem root = null;
+        try {
+            for(int i = 0; i < size; i++) {
+                while(depth >= 0 && remainingChildren[depth] == 0) {
+                    depth -= 1;
+                }
+                if(i > 0 && depth < 0) {
+                    throw new IOException("corrupted binary wbs file");
+                }
+
+                WBSVisualTreeItem node = new WBSVisualTreeItem(strings[names[i]], uids[i], hexColor(colors[i]));
+                node.setParent(depth < 0 ? null : parents[depth]);
+                node.setDuration(durations[i]);
+                node.setResource(strings[resources[i]]);
+                node.setNotes1(strings[notes1[i]]);
+                node.setNotes2(strings[notes2[i]]);
+                nodes[i] = node;
+                if(root == null) {
+                    root = node;
+                    root.getDocument().beginTransaction();  // durations are summed once at the end
+                }
+                if(depth >= 0) {
+                    remainingChildren[depth] -= 1;
+                }
+
+                if(childCounts[i] > 0) {
+                    depth += 1;
+                    parents[depth] = node;
+                    remainingChildren[depth] = childCounts[i];
+                }
+            }
+        } finally {
+            if(root != null) {
+                root.getDocument().commitTransaction();
+            }
+        }
+
+        int next = 0;
+        for(int i = 0; i < size; i++) {
+            for(int j = 0; j < predecessorCounts[i]; j++) {
+                if(next >= predecessorCount) {
+                    throw new IOException("corrupted binary wbs file");
+                }
+                nodes[i].addPredecessor(predecessors[next]);  // links to uids that are not in the file are dropped
+                next += 1;
+            }
+        }
+        root.getDocument().markSaved();  // nothing has changed since the file was read
+
+        return root;
+    }
+
+
+    private static String hexColor(int rgb) {
+        char[] hex = new char[7];
+        hex[0] = '#';
+        for(int i = 6; i >= 1; i--) {
+            hex[i] = Character.toUpperCase(Character.forDigit(rgb & 0xF, 16));
+            rgb >>= 4;
+        }
+        return new String(hex);
+    }
+
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+}
@@ -0,0 +1,484 @@
+package IOHandler;
+
+import WBSData.WBSDocument;
+import WBSData.WBSVisualTreeItem;
+import javafx.scene.paint.Color;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+
+
+/**
+ * An append-only journal kept next to a save file (save file name + .journal) so that saving a
+ * small edit only writes the nodes that changed instead of the whole wbs. Each batch holds the
+ * current state of every node that changed since the last save, which is the uid, place in the
+ * tree, values, and predecessors of the node, plus the uids of the nodes that were removed. When
+ * the file is read the batches are applied on top of it in order
+ *
+ * Once the journal grows past half the size of the save file the next save rewrites the whole
+ * file and removes the journal
+ *
+ * <pre>
+ * header  int magic "WBJL", int version, long length and long last modified time of the save
+ *         file the journal belongs to, a journal that does not match its save file is ignored
+ * batch   int payload length, payload, long CRC32 of the payload
+ * payload byte kind (1 = saved), int node count, nodes, int removed count, removed uids
+ * node    int uid, byte has parent, int parent uid, int index among siblings, name, double
+ *         duration, resource, notes1, notes2, int color as 0xRRGGBB, int predecessor count,
+ *         predecessor uids. Strings are an int byte length and UTF-8 bytes
+ * </pre>
+ *
+ * @author Aiden Carney
+ */
+public class WBSJournal {
+    public static final String EXTENSION = ".journal";
+    private static final int MAGIC = 0x57424A4C;  // "WBJL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final byte SAVED = 1;  // the only kind of batch, batches of other kinds are skipped
+    private static final long MIN_COMPACTION_SIZE = 1 << 16;  // small files are not rewritten for a few batches
+
+
+    /**
+     * The state of a node read from a batch
+     */
+    private static class NodeRecord {
+        int uid;
+        boolean hasParent;
+        int parentUid;
+        int index;
+        String name;
+        double duration;
+        String resource;
+        String notes1;
+        String notes2;
+        int color;
+        ArrayList<Integer> predecessors;
+    }
+
+
+    /**
+     * Returns the journal that belongs to a save file
+     *
+     * @param saveFile the save file
+     * @return         the journal file next to it
+     */
+    public static File getJournalFile(File saveFile) {
+        return new File(ExportHandler.resolveSaveFile(saveFile).getAbsolutePath() + EXTENSION);
+    }
+
+
+    /**
+     * Writes the nodes of a document that changed since it was last saved into a batch. Must be
+     * called from the thread that edits the tree, the batch can then be appended from any thread
+     *
+     * @param document the document to take the changes from
+     * @return         the encoded batch
+     */
+    public static byte[] createBatch(WBSDocument document) {
+        ArrayList<WBSVisualTreeItem> nodes = new ArrayList<>();
+        for(int uid : document.getChangedNodes()) {
+            WBSVisualTreeItem node = document.getNode(uid);
+            if(node != null) {
+                nodes.add(node);
+            }
+        }
+        nodes.sort(Comparator.comparingInt(WBSVisualTreeItem::getLevel));  // parents are placed before their children
+        int[] removed = document.getRemovedNodes();
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + nodes.size() * 64);
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeByte(SAVED);
+            data.writeInt(nodes.size());
+            for(WBSVisualTreeItem node : nodes) {
+                data.writeInt(node.getUid());
+                WBSVisualTreeItem parent = node.getParent();
+                data.writeBoolean(parent != null);
+                data.writeInt(parent == null ? 0 : parent.getUid());
+                data.writeInt(parent == null ? 0 : parent.getChildren().indexOf(node));
+                writeString(data, node.getNodeName());
+                data.writeDouble(node.getDuration());
+                writeString(data, node.getResource());
+                writeString(data, node.getNotes1());
+                writeString(data, node.getNotes2());
+                int red = (int)( node.getNodeColor().getRed() * 255 );  // same rounding as the hex colors in xml files
+                int green = (int)( node.getNodeColor().getGreen() * 255 );
+                int blue = (int)( node.getNodeColor().getBlue() * 255 );
+                data.writeInt((red << 16) | (green << 8) | blue);
+                ArrayList<Integer> predecessors = node.getPredecessors();
+                data.writeInt(predecessors.size());
+                for(int predecessor : predecessors) {
+                    data.writeInt(predecessor);
+                }
+            }
+            data.writeInt(removed.length);
+            for(int uid : removed) {
+                data.writeInt(uid);
+            }
+            data.flush();
+            return bytes.toByteArray();
+        } catch(IOException e) {  // writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static void writeString(DataOutputStream data, String string) throws IOException {
+        byte[] bytes = (string == null ? "" : string).getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+
+    /**
+     * Returns whether or not changes can be appended to the journal of a save file instead of
+     * rewriting the file. False if the file does not exist yet, if the journal belongs to a
+     * different version of the file, or if the journal is big enough that it should be compacted.
+     * A journal too short to hold its header is not trusted and is removed so a new one is started
+     *
+     * @param saveFile the save file
+     * @return         true if a batch can be appended
+     */
+    public static boolean canAppend(File saveFile) {
+        File baseFile = ExportHandler.resolveSaveFile(saveFile);
+        File journalFile = getJournalFile(saveFile);
+        if(!baseFile.isFile()) {
+            return false;
+        }
+        if(!journalFile.exists()) {
+            return true;
+        }
+        if(journalFile.length() > Math.max(MIN_COMPACTION_SIZE, baseFile.length() / 2)) {
+            return false;
+        }
+        if(journalFile.length() < HEADER_SIZE) {  // cut off while it was created, or not a journal at all
+            try {
+                Files.delete(journalFile.toPath());
+                return true;
+            } catch(IOException e) {
+                return false;
+            }
+        }
+        try(RandomAccessFile journal = new RandomAccessFile(journalFile, "r")) {
+            return matchesBase(journal.readInt(), journal.readInt(), journal.readLong(), journal.readLong(), baseFile);
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+
+    private static boolean matchesBase(int magic, int version, long baseLength, long baseModified, File baseFile) {
+        return magic == MAGIC && version == VERSION && baseLength == baseFile.length() && baseModified == baseFile.lastModified();
+    }
+
+
+    /**
+     * Appends a batch to the journal of a save file, creating the journal if needed. A batch left
+     * half written by a crash is cut off first
+     *
+     * @param batch    the batch from createBatch
+     * @param saveFile the save file
+     * @return         1 on success, 0 on error or if the save file does not exist or the journal
+     *                 belongs to a different version of it
+     */
+    public static int append(byte[] batch, File saveFile) {
+        File baseFile = ExportHandler.resolveSaveFile(saveFile);
+        if(!baseFile.isFile()) {
+            return 0;
+        }
+        try(RandomAccessFile journal = new RandomAccessFile(getJournalFile(saveFile), "rw")) {
+            long end;
+            if(journal.length() < HEADER_SIZE) {  // new journal
+                journal.setLength(0);
+                journal.writeInt(MAGIC);
+                journal.writeInt(VERSION);
+                journal.writeLong(baseFile.length());
+                journal.writeLong(baseFile.lastModified());
+                end = HEADER_SIZE;
+            } else {
+                if(!matchesBase(journal.readInt(), journal.readInt(), journal.readLong(), journal.readLong(), baseFile)) {
+                    return 0;
+                }
+                end = HEADER_SIZE;
+                long length = journal.length();
+                while(end + 4 <= length) {  // find the end of the last complete batch
+                    journal.seek(end);
+                    int payloadLength = journal.readInt();
+                    if(payloadLength < 0 || end + 12 + payloadLength > length) {
+                        break;
+                    }
+                    end += 12 + payloadLength;
+                }
+                journal.setLength(end);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(batch);
+            ByteBuffer frame = ByteBuffer.allocate(batch.length + 12);
+            frame.putInt(batch.length);
+            frame.put(batch);
+            frame.putLong(crc.getValue());
+            journal.seek(end);
+            journal.write(frame.array());  // one write so a crash leaves at most one partial batch
+            journal.getFD().sync();  // the changes only count as saved once they are on disk
+
+            return 1;
+        } catch(Exception e) {  // TODO: add better error handling and bring up an alert box
+            System.out.println(e);
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+
+    /**
+     * Removes the journal of a save file. Called after the whole file is rewritten
+     *
+     * @param saveFile the save file
+     */
+    public static void delete(File saveFile) throws IOException {
+        Files.deleteIfExists(getJournalFile(saveFile).toPath());
+    }
+
+
+    /**
+     * Reads the complete batches of the journal of a save file. A journal that does not belong to
+     * the file gives no batches
+     *
+     * @param saveFile the save file
+     * @param batches  the list the batches are added to
+     * @return         false if the journal holds a damaged batch, the batches before it are still
+     *                 added
+     */
+    private static boolean readBatches(File saveFile, ArrayList<ByteBuffer> batches) throws IOException {
+        File journalFile = getJournalFile(saveFile);
+        if(!journalFile.exists()) {
+            return true;
+        }
+
+        ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(journalFile.toPath()));
+        if(journal.remaining() < HEADER_SIZE) {
+            return true;
+        }
+        if(!matchesBase(journal.getInt(), journal.getInt(), journal.getLong(), journal.getLong(), ExportHandler.resolveSaveFile(saveFile))) {
+            System.out.println("Ignoring " + journalFile + " because it belongs to a different version of the file");
+            return true;
+        }
+
+        while(journal.remaining() >= 4) {
+            int payloadLength = journal.getInt();
+            if(payloadLength < 0 || payloadLength + 8 > journal.remaining()) {
+                break;  // cut off by a crash
+            }
+            CRC32 crc = new CRC32();
+            crc.update(journal.array(), journal.position(), payloadLength);
+            ByteBuffer payload = ByteBuffer.wrap(journal.array(), journal.position(), payloadLength).slice();
+            journal.position(journal.position() + payloadLength);
+            if(journal.getLong() != crc.getValue()) {
+                System.out.println("Ignoring the rest of " + journalFile + " because a batch in it is damaged");
+                return false;  // nothing after a damaged batch can be trusted
+            }
+            batches.add(payload);
+        }
+        return true;  // a batch cut off by a crash is not damage, the next append removes it
+    }
+
+
+    /**
+     * Applies the journal of a save file to the tree that was read from it. The batches are
+     * applied in order and the document is marked as saved. Replaying stops at a damaged batch or
+     * at one that does not fit the tree, the document is then left needing a full save so the next
+     * save replaces the journal instead of appending after the bad batch
+     *
+     * @param root     the root of the tree read from the save file
+     * @param saveFile the save file
+     * @return         the number of batches applied
+     */
+    public static int replay(WBSVisualTreeItem root, File saveFile) throws IOException {
+        ArrayList<ByteBuffer> batches = new ArrayList<>();
+        boolean intact = readBatches(saveFile, batches);
+        int applied = 0;
+        WBSDocument document = root.getDocument();
+        document.beginTransaction();  // durations are summed once at the end
+        try {
+            for(ByteBuffer batch : batches) {
+                if(batch.get(0) != SAVED) {
+                    continue;
+                }
+                if(!applyBatch(document, batch)) {
+                    System.out.println("Ignoring the rest of " + getJournalFile(saveFile) + " because a batch places nodes under parents that do not exist");
+                    intact = false;
+                    break;
+                }
+                applied += 1;
+            }
+        } finally {
+            document.commitTransaction();
+        }
+        document.markSaved();
+        if(!intact) {
+            document.markUntrackedChanges();
+        }
+        return applied;
+    }
+
+
+    private static String readString(ByteBuffer batch) {
+        byte[] bytes = new byte[batch.getInt()];
+        batch.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Applies one batch to a document. The batch is checked first and nothing is changed if it
+     * does not fit the tree
+     *
+     * @param document the document to apply the batch to
+     * @param batch    the payload of the batch
+     * @return         false if a node in the batch is placed under a parent that does not exist
+     */
+    private static boolean applyBatch(WBSDocument document, ByteBuffer batch) {
+        batch.position(1);  // kind of batch
+        NodeRecord[] records = new NodeRecord[batch.getInt()];
+        for(int i = 0; i < records.length; i++) {
+            NodeRecord record = new NodeRecord();
+            record.uid = batch.getInt();
+            record.hasParent = batch.get() != 0;
+            record.parentUid = batch.getInt();
+            record.index = batch.getInt();
+            record.name = readString(batch);
+            record.duration = batch.getDouble();
+            record.resource = readString(batch);
+            record.notes1 = readString(batch);
+            record.notes2 = readString(batch);
+            record.color = batch.getInt();
+            int predecessorCount = batch.getInt();
+            record.predecessors = new ArrayList<>(predecessorCount);
+            for(int j = 0; j < predecessorCount; j++) {
+                record.predecessors.add(batch.getInt());
+            }
+            records[i] = record;
+        }
+        int[] removed = new int[batch.getInt()];
+        for(int i = 0; i < removed.length; i++) {
+            removed[i] = batch.getInt();
+        }
+
+        // parents come before their children, so every parent is either in the tree already or
+        // earlier in the batch. Anything else means the batch was not written from this tree
+        HashSet<Integer> addedUids = new HashSet<>();
+        for(NodeRecord record : records) {
+            if(record.hasParent && document.getNode(record.parentUid) == null && !addedUids.contains(record.parentUid)) {
+                return false;
+            }
+            addedUids.add(record.uid);
+        }
+
+        // put every changed node under its parent
+        for(NodeRecord record : records) {
+            WBSVisualTreeItem node = document.getNode(record.uid);
+            String color = String.format("#%06X", record.color & 0xFFFFFF);
+            if(node == null) {
+                if(!record.hasParent) {
+                    continue;  // the root is never replaced
+                }
+                node = new WBSVisualTreeItem(record.name, record.uid, color);
+            }
+            if(record.hasParent) {
+                WBSVisualTreeItem parent = document.getNode(record.parentUid);
+                if(node.getParent() != parent) {
+                    node.setParent(parent);
+                }
+            }
+
+            if(!node.getNodeName().equals(record.name)) {
+                node.setNodeName(record.name);
+            }
+            if(!node.getResource().equals(record.resource)) {
+                node.setResource(record.resource);
+            }
+            if(!node.getNotes1().equals(record.notes1)) {
+                node.setNotes1(record.notes1);
+            }
+            if(!node.getNotes2().equals(record.notes2)) {
+                node.setNotes2(record.notes2);
+            }
+            node.setNodeColor(Color.web(color));
+        }
+
+        // removed after the moves because a node can be moved out of a branch that is then removed
+        for(int uid : removed) {
+            WBSVisualTreeItem node = document.getNode(uid);
+            if(node != null && node.getParent() != null) {
+                node.getParent().deleteChild(node);
+            }
+        }
+
+        // order the children of each parent. Nodes that did not change kept their order relative to
+        // each other, so they fill the positions the changed nodes do not take
+        HashMap<WBSVisualTreeItem, ArrayList<NodeRecord>> placedChildren = new HashMap<>();
+        for(NodeRecord record : records) {
+            WBSVisualTreeItem node = document.getNode(record.uid);
+            if(record.hasParent && node != null && node.getParent() != null) {
+                placedChildren.computeIfAbsent(node.getParent(), parent -> new ArrayList<>()).add(record);
+            }
+        }
+        for(HashMap.Entry<WBSVisualTreeItem, ArrayList<NodeRecord>> entry : placedChildren.entrySet()) {
+            ArrayList<WBSVisualTreeItem> children = entry.getKey().getChildren();
+            WBSVisualTreeItem[] order = new WBSVisualTreeItem[children.size()];
+            HashSet<WBSVisualTreeItem> placed = new HashSet<>();
+            for(NodeRecord record : entry.getValue()) {
+                if(record.index >= 0 && record.index < order.length && order[record.index] == null) {
+                    order[record.index] = document.getNode(record.uid);
+                    placed.add(order[record.index]);
+                }
+            }
+            int next = 0;
+            for(WBSVisualTreeItem child : children) {
+                if(placed.contains(child)) {
+                    continue;
+                }
+                while(order[next] != null) {
+                    next += 1;
+                }
+                order[next] = child;
+            }
+            for(int i = 0; i < order.length; i++) {
+                order[i].moveToIndex(i);  // everything before i is already in place
+            }
+        }
+
+        // durations of parents come from their children, so only leaves are set
+        for(NodeRecord record : records) {
+            WBSVisualTreeItem node = document.getNode(record.uid);
+            if(node != null && node.isLeaf() && node.getDuration() != record.duration) {
+                node.setDuration(record.duration);
+            }
+        }
+
+        // predecessors last so links to nodes added in the batch can be made
+        for(NodeRecord record : records) {
+            WBSVisualTreeItem node = document.getNode(record.uid);
+            if(node != null && !node.getPredecessors().equals(record.predecessors)) {
+                node.clearPredecessors();
+                for(int uid : record.predecessors) {
+                    node.addPredecessor(uid);
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -1,5 +1,7 @@
 import Gui.HeaderMenu;
 import Gui.TabView;
+import IOHandler.AutosaveHandler;
+import IOHandler.BackgroundIOHandler;
 import IOHandler.ImportHandler;
 import WBSData.WBSHandler;
 import WBSData.WBSVisualTreeItem;
@@ -31,6 +33,7 @@ public class Main extends Application {
     private static final WBSHandler wbsHandler = new WBSHandler();
     private static final TabView editor = new TabView(wbsHandler);
     private static final HeaderMenu menu = new HeaderMenu(wbsHandler, editor);
+    private static final AutosaveHandler autosave = new AutosaveHandler(wbsHandler);
 
     private static ArrayList<String> cliArgs = new ArrayList<>();
 
@@ -71,6 +74,23 @@ public class Main extends Application {
         primaryStage.show();
         Platform.setImplicitExit(true);
 
+        // offer to open the changes that were not saved the last time the application ran
+        ArrayList<File> recoveryFiles = AutosaveHandler.getRecoveryFiles();
+        if(!recoveryFiles.isEmpty()) {
+            int code = AutosaveHandler.promptRecovery(recoveryFiles);
+            for(File recoveryFile : recoveryFiles) {
+                if(code == 1) {
+                    Integer uid = autosave.recover(recoveryFile);
+                    if(uid != null) {
+                        editor.addTab(uid);
+                    }
+                } else if(code == 0) {
+                    AutosaveHandler.deleteRecoveryFile(recoveryFile);
+                }
+            }
+        }
+        autosave.start();
+
         // on close, iterate through each tab and run the close request to save it or not
         scene.getWindow().setOnCloseRequest(new EventHandler<WindowEvent>() {
             public void handle(WindowEvent ev) {
@@ -83,6 +103,8 @@ public class Main extends Application {
                         return;
                     }
                 }
+                autosave.stop();  // every tab was saved or discarded so the recovery files are not needed
+                BackgroundIOHandler.waitForPendingJobs();  // let saves that are still being written finish
                 System.exit(0);  // terminate the program once the window is closed
             }
         });
@@ -128,14 +150,7 @@ public class Main extends Application {
             ioException.printStackTrace();
         }
 
-//        File recoveryDir = new File("./.recovery");
-//        if(!recoveryDir.exists()) recoveryDir.mkdir();
-//        for(Map.Entry<Integer, DSMData> matrix : matrixHandler.getMatrices().entrySet()) {
-//            File f = new File("./.recovery/" + matrixHandler.getMatrixSaveFile(matrix.getKey()).getName());
-//            ExportHandler.saveMatrixToFile(matrix.getValue(), f);
-//            matrix.getValue().setWasModified();  // matrix is not saved to known location, so don't display it as saved to the user
-//        }
-
+        autosave.saveAllNow();  // the newest changes are offered for recovery the next time the application starts
     }
 
 
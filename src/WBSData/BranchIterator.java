@@ -0,0 +1,124 @@
+package WBSData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Iterates over a node and all of its descendants in pre-order (the same order the nodes are
+ * displayed in) without recursion and without building a list of the nodes. The children of the
+ * most recently returned node can be skipped so that collapsed branches are not visited
+ *
+ * @param <T> the type of tree item being iterated over
+ */
+public class BranchIterator<T extends VisualTreeItem<T>> implements Iterator<T> {
+    private final T firstNode;
+    private boolean started;
+    private T lastNode;
+    private boolean skipChildren;
+
+    private final ArrayList<List<T>> childLists;  // stack of the children lists being iterated, only the first depth are in use
+    private int[] childIndexes;         // next index to visit in each children list
+    private int depth;
+
+
+    /**
+     * Creates an iterator over a branch of a tree
+     *
+     * @param startNode the node the branch starts at, it is the first node returned
+     */
+    public BranchIterator(T startNode) {
+        this.firstNode = startNode;
+        childLists = new ArrayList<>(16);
+        childIndexes = new int[16];
+    }
+
+
+    /**
+     * Creates an iterator over the part of a branch that comes at or after a node in pre-order
+     *
+     * @param startNode  the node the branch starts at
+     * @param resumeNode a node in the branch, it is the first node returned
+     */
+    public BranchIterator(T startNode, T resumeNode) {
+        this.firstNode = resumeNode;
+        childLists = new ArrayList<>(16);
+        childIndexes = new int[16];
+
+        ArrayList<T> path = new ArrayList<>();
+        for(T node = resumeNode; node != startNode; node = node.getParent()) {
+            path.add(node);
+        }
+        for(int i = path.size() - 1; i >= 0; i--) {  // siblings after each node on the path are still to come
+            List<T> siblings = path.get(i).getParent().getChildren();
+            push(siblings);
+            childIndexes[depth - 1] = siblings.indexOf(path.get(i)) + 1;
+        }
+    }
+
+
+    /**
+     * Stops the iterator from visiting the descendants of the node most recently returned by next()
+     */
+    public void skipChildren() {
+        skipChildren = true;
+    }
+
+
+    @Override
+    public boolean hasNext() {
+        if(!started) {
+            return true;
+        }
+        if(!skipChildren && !lastNode.getChildren().isEmpty()) {
+            return true;
+        }
+        while(depth > 0 && childIndexes[depth - 1] >= childLists.get(depth - 1).size()) {  // drop finished children lists
+            depth--;
+        }
+        return depth > 0;
+    }
+
+
+    @Override
+    public T next() {
+        if(!started) {
+            started = true;
+            lastNode = firstNode;
+            return firstNode;
+        }
+
+        if(!skipChildren && !lastNode.getChildren().isEmpty()) {  // descend into the last node
+            push(lastNode.getChildren());
+        }
+        skipChildren = false;
+
+        while(depth > 0 && childIndexes[depth - 1] >= childLists.get(depth - 1).size()) {
+            depth--;
+        }
+        if(depth == 0) {
+            throw new NoSuchElementException();
+        }
+
+        lastNode = childLists.get(depth - 1).get(childIndexes[depth - 1]);
+        childIndexes[depth - 1] += 1;
+        return lastNode;
+    }
+
+
+    private void push(List<T> children) {
+        if(depth == childIndexes.length) {  // grow the stack
+            childIndexes = Arrays.copyOf(childIndexes, depth * 2);
+        }
+        if(depth == childLists.size()) {
+            childLists.add(children);
+        } else {
+            childLists.set(depth, children);
+        }
+        childIndexes[depth] = 0;
+        depth++;
+    }
+}
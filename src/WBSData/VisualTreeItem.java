@@ -5,8 +5,9 @@ import javafx.scene.paint.Color;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.function.Consumer;
 
-public interface VisualTreeItem<T extends VisualTreeItem> {
+public interface VisualTreeItem<T extends VisualTreeItem<T>> {
     T getNewNode();
     String getNodeName();
     void setNodeName(String nodeName);
@@ -24,6 +25,9 @@ public interface VisualTreeItem<T extends VisualTreeItem> {
     ArrayList<T> getTreeNodes();
     ArrayList<T> getSortedTreeNodes();
     ArrayList<T> getBranchNodes(ArrayList<T> nodes, T startNode);
+    BranchIterator<T> branchIterator();
+    void visitBranch(Consumer<T> visitor);
+    void runTransaction(Runnable edits);
     boolean isLeaf();
     boolean isRoot();
     void shiftNodeOut();
@@ -0,0 +1,195 @@
+package WBSData;
+
+import java.util.ArrayList;
+
+
+/**
+ * List of the children of a node that remembers the index of each child in the child itself so
+ * that finding a child is constant time. Children before indexedSize have their exact index.
+ * Children after it have their index plus a common offset, so a run of insertions or removals at
+ * the same place only changes the offset instead of touching every later child. When the later
+ * children stop sharing one offset they are renumbered on the next lookup. Changes made through
+ * methods that are not overridden here are detected with modCount and also cause a renumber
+ */
+class WBSChildList extends ArrayList<WBSVisualTreeItem> {
+    private static final long serialVersionUID = 1L;
+
+    private int indexedSize;      // children before this position have their exact index
+    private int offset;           // stored index minus actual index of the children after indexedSize
+    private boolean offsetValid;  // false if the children after indexedSize do not share one offset
+    private int indexedModCount;  // modCount the fields above were last updated for
+
+
+    /**
+     * Creates an empty list
+     */
+    WBSChildList() {
+        super();
+        indexedSize = 0;
+        offset = 0;
+        offsetValid = true;
+        indexedModCount = modCount;
+    }
+
+
+    @Override
+    public boolean add(WBSVisualTreeItem node) {
+        checkModCount();
+        int index = size();
+        super.add(node);
+        if(indexedSize == index) {  // nothing after indexedSize so the node extends the exact part
+            node.childIndex = index;
+            indexedSize = index + 1;
+        } else {
+            node.childIndex = offsetValid ? index + offset : index;
+        }
+        indexedModCount = modCount;
+        return true;
+    }
+
+
+    @Override
+    public void add(int index, WBSVisualTreeItem node) {
+        checkModCount();
+        super.add(index, node);
+        if(sharesOffset(index)) {  // children from index on move up by one, which is one less offset
+            indexedSize = index;
+            offset -= 1;
+            node.childIndex = index + offset;
+        } else {
+            indexedSize = Math.min(indexedSize, index);
+            offsetValid = false;
+            node.childIndex = index;
+        }
+        indexedModCount = modCount;
+    }
+
+
+    @Override
+    public WBSVisualTreeItem set(int index, WBSVisualTreeItem node) {
+        WBSVisualTreeItem old = super.set(index, node);
+        node.childIndex = storedIndex(index);
+        return old;
+    }
+
+
+    @Override
+    public WBSVisualTreeItem remove(int index) {
+        checkModCount();
+        WBSVisualTreeItem old = super.remove(index);
+        if(sharesOffset(index)) {  // children after index move down by one, which is one more offset
+            indexedSize = index;
+            offset += 1;
+        } else {
+            indexedSize = Math.min(indexedSize, index);
+            offsetValid = false;
+        }
+        indexedModCount = modCount;
+        return old;
+    }
+
+
+    @Override
+    public boolean remove(Object o) {
+        int index = indexOf(o);
+        if(index == -1) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+
+    @Override
+    public int indexOf(Object o) {
+        if(!(o instanceof WBSVisualTreeItem)) {
+            return super.indexOf(o);
+        }
+        checkModCount();
+        if(!offsetValid) {
+            for(int i = indexedSize; i < size(); i++) {
+                get(i).childIndex = i;
+            }
+            indexedSize = size();
+            offset = 0;
+            offsetValid = true;
+        }
+
+        // a child is either in the exact part or in the offset part, so missing both means it is not a child
+        int storedIndex = ((WBSVisualTreeItem) o).childIndex;
+        if(storedIndex >= 0 && storedIndex < indexedSize && get(storedIndex) == o) {
+            return storedIndex;
+        }
+        int index = storedIndex - offset;
+        if(index >= indexedSize && index < size() && get(index) == o) {
+            return index;
+        }
+        return -1;
+    }
+
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);  // a node is never a child twice
+    }
+
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) != -1;
+    }
+
+
+    /**
+     * Moves a child to a new index shifting the children in between by one. The children are
+     * shifted with array copies, then every child in between is renumbered since each of them
+     * changed index
+     *
+     * @param from the current index of the child
+     * @param to   the index to move the child to
+     */
+    void move(int from, int to) {
+        checkModCount();
+        WBSVisualTreeItem node = super.remove(from);
+        super.add(to, node);
+        indexedModCount = modCount;  // children outside of the moved range keep their place and index
+        for(int i = Math.min(from, to); i <= Math.max(from, to); i++) {
+            get(i).childIndex = storedIndex(i);
+        }
+    }
+
+
+    /**
+     * Returns the index a child at an index should have stored in it
+     */
+    private int storedIndex(int index) {
+        if(index < indexedSize || !offsetValid) {
+            return index;
+        }
+        return index + offset;
+    }
+
+
+    /**
+     * Returns whether every child from an index on will still share one offset after the children
+     * from that index are shifted
+     */
+    private boolean sharesOffset(int index) {
+        if(!offsetValid) {
+            return false;
+        }
+        if(index >= indexedSize) {
+            return index == indexedSize;  // children between indexedSize and index would keep the old offset
+        }
+        return offset == 0;  // exact children between index and indexedSize join the offset part
+    }
+
+
+    private void checkModCount() {
+        if(modCount != indexedModCount) {  // changed by a method that does not track indexes
+            indexedSize = 0;
+            offsetValid = false;
+            indexedModCount = modCount;
+        }
+    }
+}
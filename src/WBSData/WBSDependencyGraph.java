@@ -0,0 +1,275 @@
+package WBSData;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * Predecessor links between the nodes of a document stored by uid in both directions so that the
+ * predecessors and the successors of a node can be found without searching the tree. Every uid in
+ * the graph belongs to a node in the document, links to nodes that leave the document are removed
+ * when they leave
+ */
+public class WBSDependencyGraph {
+    private static final int[] EMPTY = new int[0];
+
+    private final WBSDocument document;
+    private final HashMap<Integer, IntList> predecessors;  // node uid, uids it depends on
+    private final HashMap<Integer, IntList> successors;    // node uid, uids that depend on it
+    private int edgeCount;
+
+
+    /**
+     * Growable list of unique ints kept in insertion order
+     */
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        boolean add(int value) {
+            return insert(size, value);
+        }
+
+        boolean insert(int index, int value) {
+            if(indexOf(value) != -1) {
+                return false;
+            }
+            if(size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+            return true;
+        }
+
+        int remove(int value) {
+            int index = indexOf(value);
+            if(index == -1) {
+                return -1;
+            }
+            System.arraycopy(values, index + 1, values, index, size - index - 1);  // keep the order the links were added in
+            size--;
+            return index;
+        }
+
+        int indexOf(int value) {
+            for(int i = 0; i < size; i++) {
+                if(values[i] == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+
+    /**
+     * Creates an empty graph for a document
+     *
+     * @param document the document whose nodes are linked
+     */
+    WBSDependencyGraph(WBSDocument document) {
+        this.document = document;
+        predecessors = new HashMap<>();
+        successors = new HashMap<>();
+    }
+
+
+    /**
+     * Returns the uids of the nodes a node depends on in the order they were added
+     *
+     * @param uid the uid of the node
+     * @return    array of predecessor uids, empty if there are none
+     */
+    public int[] getPredecessors(int uid) {
+        IntList list = predecessors.get(uid);
+        return list == null ? EMPTY : list.toArray();
+    }
+
+
+    /**
+     * Returns the uids of the nodes that depend on a node
+     *
+     * @param uid the uid of the node
+     * @return    array of successor uids, empty if there are none
+     */
+    public int[] getSuccessors(int uid) {
+        IntList list = successors.get(uid);
+        return list == null ? EMPTY : list.toArray();
+    }
+
+
+    /**
+     * Returns the number of nodes a node depends on
+     *
+     * @param uid the uid of the node
+     * @return    the number of predecessors
+     */
+    public int getPredecessorCount(int uid) {
+        IntList list = predecessors.get(uid);
+        return list == null ? 0 : list.size;
+    }
+
+
+    /**
+     * Returns the number of nodes that depend on a node
+     *
+     * @param uid the uid of the node
+     * @return    the number of successors
+     */
+    public int getSuccessorCount(int uid) {
+        IntList list = successors.get(uid);
+        return list == null ? 0 : list.size;
+    }
+
+
+    /**
+     * Returns whether or not a node depends on another node
+     *
+     * @param predecessorUid the uid of the node depended on
+     * @param successorUid   the uid of the dependent node
+     * @return               true if the link exists
+     */
+    public boolean hasDependency(int predecessorUid, int successorUid) {
+        IntList list = predecessors.get(successorUid);
+        return list != null && list.indexOf(predecessorUid) != -1;
+    }
+
+
+    /**
+     * Returns the number of links in the graph
+     *
+     * @return the number of predecessor links
+     */
+    public int size() {
+        return edgeCount;
+    }
+
+
+    /**
+     * Links two nodes of the document. Links to uids that are not in the document are not added
+     *
+     * @param predecessorUid the uid of the node depended on
+     * @param successorUid   the uid of the dependent node
+     * @return               true if the link was added, false if it already existed or a uid is not in the document
+     */
+    boolean addDependency(int predecessorUid, int successorUid) {
+        return addDependency(predecessorUid, successorUid, -1);
+    }
+
+
+    /**
+     * Links two nodes of the document with the predecessor at a position in the successor's list
+     * of predecessors. Used to put a removed link back where it was
+     *
+     * @param predecessorUid the uid of the node depended on
+     * @param successorUid   the uid of the dependent node
+     * @param position       the index among the predecessors, -1 or past the end to add it last
+     * @return               true if the link was added, false if it already existed or a uid is not in the document
+     */
+    boolean addDependency(int predecessorUid, int successorUid, int position) {
+        if(!document.containsUid(predecessorUid) || !document.containsUid(successorUid)) {
+            return false;
+        }
+        IntList list = predecessors.computeIfAbsent(successorUid, k -> new IntList());
+        if(!list.insert(position < 0 || position > list.size ? list.size : position, predecessorUid)) {
+            return false;
+        }
+        successors.computeIfAbsent(predecessorUid, k -> new IntList()).add(successorUid);
+        edgeCount++;
+        predecessorsChanged(successorUid);
+        document.recordChange(WBSUndoHistory.dependencyChange(this, predecessorUid, successorUid, true, -1));
+        document.structureChanged();
+        return true;
+    }
+
+
+    /**
+     * Removes the link between two nodes
+     *
+     * @param predecessorUid the uid of the node depended on
+     * @param successorUid   the uid of the dependent node
+     * @return               true if the link existed
+     */
+    boolean removeDependency(int predecessorUid, int successorUid) {
+        int position = removeFrom(predecessors, successorUid, predecessorUid);
+        if(position == -1) {
+            return false;
+        }
+        removeFrom(successors, predecessorUid, successorUid);
+        edgeCount--;
+        predecessorsChanged(successorUid);
+        document.recordChange(WBSUndoHistory.dependencyChange(this, predecessorUid, successorUid, false, position));
+        document.structureChanged();
+        return true;
+    }
+
+
+    /**
+     * Removes every link to the predecessors of a node
+     *
+     * @param uid the uid of the node
+     * @return    true if any links were removed
+     */
+    boolean clearPredecessors(int uid) {
+        IntList list = predecessors.remove(uid);
+        if(list == null) {
+            return false;
+        }
+        for(int i = list.size - 1; i >= 0; i--) {  // last first so undoing puts them back in order
+            removeFrom(successors, list.values[i], uid);
+            document.recordChange(WBSUndoHistory.dependencyChange(this, list.values[i], uid, false, i));
+        }
+        edgeCount -= list.size;
+        predecessorsChanged(uid);
+        document.structureChanged();
+        return list.size > 0;
+    }
+
+
+    /**
+     * Removes every link in either direction that involves a node. Called when the node leaves
+     * the document
+     *
+     * @param uid the uid of the node
+     */
+    void removeNode(int uid) {
+        clearPredecessors(uid);
+        IntList list = successors.remove(uid);
+        if(list != null) {
+            for(int i = 0; i < list.size; i++) {
+                int position = removeFrom(predecessors, list.values[i], uid);
+                predecessorsChanged(list.values[i]);
+                document.recordChange(WBSUndoHistory.dependencyChange(this, uid, list.values[i], false, position));
+            }
+            edgeCount -= list.size;
+            document.structureChanged();
+        }
+    }
+
+
+    private void predecessorsChanged(int uid) {  // the predecessors are part of the node's snapshot
+        WBSVisualTreeItem node = document.getNode(uid);
+        if(node != null) {
+            node.invalidateSnapshot();
+        }
+    }
+
+
+    private static int removeFrom(HashMap<Integer, IntList> lists, int key, int value) {  // returns the index value was at or -1
+        IntList list = lists.get(key);
+        if(list == null) {
+            return -1;
+        }
+        int index = list.remove(value);
+        if(list.size == 0) {
+            lists.remove(key);
+        }
+        return index;
+    }
+}
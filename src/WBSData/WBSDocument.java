@@ -0,0 +1,641 @@
+package WBSData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+
+/**
+ * Holds the state that belongs to a whole wbs instead of a single node. Every node in a tree
+ * points at the document owned by its root node so that document wide lookups do not need to
+ * walk the tree
+ */
+public class WBSDocument {
+    private static final AtomicInteger looseUids = new AtomicInteger(1);
+    private static final int DURATION_RECOMPUTE_INTERVAL = 1024;
+
+    private WBSVisualTreeItem root;
+    private final ConcurrentHashMap<Integer, WBSVisualTreeItem> uidIndex;
+    private final AtomicInteger nextUid;
+    private final WBSDependencyGraph dependencies;
+    private WBSSchedule schedule;
+    private WBSUndoHistory history;
+
+    private final ArrayList<WBSVisualTreeItem> shortNameIndex;  // short name, node. Short names are pre-order positions
+    private int shortNamesValid;  // the first this many entries of the index are up to date
+    private boolean shortNamesChanged;
+    private int durationUpdates;
+
+    private int transactionDepth;
+    private boolean savedBeforeTransaction;
+    private final HashSet<WBSVisualTreeItem> pendingDurationNodes;  // nodes whose ancestors need their durations rolled up
+
+    private volatile long modificationCount;  // only changed by the thread editing the tree
+    private volatile long savedModificationCount;
+    private final HashMap<Integer, Long> changedNodes;  // uid, modification count when it changed, since the last save
+    private final HashMap<Integer, Long> removedNodes;  // uid, modification count when it was removed, since the last save
+    private long untrackedChangesCount;  // modification count of changes not tracked node by node, -1 if there are none since the last save
+    private final CopyOnWriteArrayList<Consumer<Boolean>> savedStateListeners;
+
+
+    /**
+     * Creates a new document owned by a root node. The caller is responsible for registering
+     * the nodes of the tree
+     *
+     * @param root the root node of the tree
+     */
+    WBSDocument(WBSVisualTreeItem root) {
+        this.root = root;
+        uidIndex = new ConcurrentHashMap<>();
+        nextUid = new AtomicInteger(1);
+        dependencies = new WBSDependencyGraph(this);
+        shortNameIndex = new ArrayList<>();
+        shortNamesValid = 0;
+        shortNamesChanged = true;
+        transactionDepth = 0;
+        pendingDurationNodes = new HashSet<>();
+        modificationCount = 1;  // new documents start out unsaved
+        savedModificationCount = 0;
+        changedNodes = new HashMap<>();
+        removedNodes = new HashMap<>();
+        untrackedChangesCount = -1;
+        savedStateListeners = new CopyOnWriteArrayList<>();
+    }
+
+
+    /**
+     * Returns a uid for a node that is not created from a document. These uids are only unique
+     * among other loose nodes, so they are checked again when the node is added to a tree
+     *
+     * @return a new uid
+     */
+    static int allocateLooseUid() {
+        return looseUids.getAndIncrement();
+    }
+
+
+    /**
+     * Returns the root node that owns this document
+     *
+     * @return the root node of the tree
+     */
+    public WBSVisualTreeItem getRoot() {
+        return root;
+    }
+
+
+    /**
+     * Returns the node with a given uid in constant time
+     *
+     * @param uid the uid of the node to find
+     * @return    the node or null if no node in the document has that uid
+     */
+    public WBSVisualTreeItem getNode(int uid) {
+        return uidIndex.get(uid);
+    }
+
+
+    /**
+     * Returns whether or not a node with a given uid is part of this document
+     *
+     * @param uid the uid to check
+     * @return    true if the uid is in use
+     */
+    public boolean containsUid(int uid) {
+        return uidIndex.containsKey(uid);
+    }
+
+
+    /**
+     * Returns the number of nodes in the document
+     *
+     * @return the number of indexed nodes
+     */
+    public int size() {
+        return uidIndex.size();
+    }
+
+
+    /**
+     * Returns the predecessor links between the nodes of the document
+     *
+     * @return the dependency graph
+     */
+    public WBSDependencyGraph getDependencies() {
+        return dependencies;
+    }
+
+
+    /**
+     * Returns the critical path schedule of the document. It is kept up to date as the document
+     * changes once it has been requested
+     *
+     * @return the schedule
+     */
+    public WBSSchedule getSchedule() {
+        if(schedule == null) {
+            schedule = new WBSSchedule(this);
+        }
+        return schedule;
+    }
+
+
+    /**
+     * Takes an unchangeable copy of the whole wbs that can be read from other threads while the
+     * tree keeps being edited. Only the nodes that changed since the last snapshot are copied.
+     * Must be called from the thread that edits the tree
+     *
+     * @return the snapshot
+     */
+    public WBSSnapshot createSnapshot() {
+        flushDurations();  // durations in an open transaction are brought up to date first
+        return new WBSSnapshot(root.getSnapshot(), modificationCount);
+    }
+
+
+    /**
+     * Returns the undo history of the document. Edits are only recorded once the history has been
+     * requested, so documents that are never edited by the user don't keep any
+     *
+     * @return the undo history
+     */
+    public WBSUndoHistory getHistory() {
+        if(history == null) {
+            history = new WBSUndoHistory(this);
+        }
+        return history;
+    }
+
+
+    /**
+     * Records an edit in the undo history if the document has one
+     *
+     * @param change the edit that was made
+     */
+    void recordChange(WBSUndoHistory.Change change) {
+        if(history != null) {
+            history.record(change);
+        }
+    }
+
+
+    /**
+     * Runs edits so that everything they record is undone as one step, even outside of a
+     * transaction. Unlike a transaction nothing else is deferred
+     *
+     * @param edits the edits to group
+     */
+    void groupChanges(Runnable edits) {
+        if(history == null) {
+            edits.run();
+            return;
+        }
+        WBSUndoHistory groupHistory = history;
+        groupHistory.beginGroup();
+        try {
+            edits.run();
+        } finally {
+            groupHistory.endGroup();
+        }
+    }
+
+
+    /**
+     * Returns whether or not the document is undoing or redoing a step
+     *
+     * @return true while recorded changes are being applied
+     */
+    boolean isReplaying() {
+        return history != null && history.isReplaying();
+    }
+
+
+    /**
+     * Returns whether or not edits to the document are being recorded for undo
+     *
+     * @return true if the document has an undo history
+     */
+    boolean isRecording() {
+        return history != null;
+    }
+
+
+    /**
+     * Called when the values of a node or its place in the tree change. Saves use this to only
+     * write the nodes that changed
+     *
+     * @param node the node that changed
+     */
+    void nodeChanged(WBSVisualTreeItem node) {
+        changedNodes.put(node.getUid(), modificationCount);
+    }
+
+
+    /**
+     * Returns the uids of the nodes that were added or changed since the document was last saved.
+     * A node counts as changed when one of its values, its predecessors, or its place in the tree
+     * changed
+     *
+     * @return the uids of the changed nodes that are still in the document
+     */
+    public int[] getChangedNodes() {
+        return changedNodes.keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+
+    /**
+     * Returns the uids of the nodes that were removed since the document was last saved
+     *
+     * @return the uids of the removed nodes
+     */
+    public int[] getRemovedNodes() {
+        return removedNodes.keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+
+    /**
+     * Called when nodes or predecessor links are added, removed, or moved
+     */
+    void structureChanged() {
+        if(schedule != null) {
+            schedule.invalidate();
+        }
+    }
+
+
+    /**
+     * Called when the duration of a node in the document changes
+     *
+     * @param node the node that changed
+     */
+    void durationChanged(WBSVisualTreeItem node) {
+        if(schedule != null) {
+            if(transactionDepth > 0) {  // one full recompute is cheaper than many incremental updates
+                schedule.invalidate();
+            } else {
+                schedule.durationChanged(node);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the node with a given short name in constant time once the short names are up to date
+     *
+     * @param shortName the short name of the node to find
+     * @return          the node or null if no node has that short name
+     */
+    public WBSVisualTreeItem getNodeByShortName(int shortName) {
+        updateShortNames();
+        if(shortName < 0 || shortName >= shortNameIndex.size()) {
+            return null;
+        }
+        return shortNameIndex.get(shortName);
+    }
+
+
+    /**
+     * Renumbers the nodes that have moved since short names were last updated. Nodes before the
+     * first change in pre-order keep their short names and are not visited
+     */
+    public void updateShortNames() {
+        if(!shortNamesChanged) {
+            return;
+        }
+
+        WBSVisualTreeItem resumeNode;
+        if(shortNamesValid == 0) {
+            resumeNode = root;
+        } else {
+            resumeNode = getNextInPreOrder(shortNameIndex.get(shortNamesValid - 1));
+        }
+
+        int position = shortNamesValid;
+        if(resumeNode != null) {
+            BranchIterator<WBSVisualTreeItem> nodes = new BranchIterator<>(root, resumeNode);
+            while(nodes.hasNext()) {
+                WBSVisualTreeItem node = nodes.next();
+                node.setShortName(position);
+                if(position < shortNameIndex.size()) {
+                    shortNameIndex.set(position, node);
+                } else {
+                    shortNameIndex.add(node);
+                }
+                position++;
+            }
+        }
+        shortNameIndex.subList(position, shortNameIndex.size()).clear();  // nodes were removed
+
+        shortNamesValid = position;
+        shortNamesChanged = false;
+    }
+
+
+    /**
+     * Called before a node moves so that every short name from the node's position on is
+     * renumbered
+     *
+     * @param node the first node whose position changes
+     */
+    void invalidateShortNamesFrom(WBSVisualTreeItem node) {
+        if(isShortNameCurrent(node)) {  // otherwise the node is already past the first change
+            invalidateShortNames(node.getStoredShortName());
+        }
+    }
+
+
+    /**
+     * Called before a node is inserted so that every short name after a node is renumbered
+     *
+     * @param node the last node whose position does not change
+     */
+    void invalidateShortNamesAfter(WBSVisualTreeItem node) {
+        if(isShortNameCurrent(node)) {
+            invalidateShortNames(node.getStoredShortName() + 1);
+        }
+    }
+
+
+    private void invalidateShortNames(int position) {
+        shortNamesValid = Math.min(shortNamesValid, position);
+        shortNamesChanged = true;
+    }
+
+
+    private boolean isShortNameCurrent(WBSVisualTreeItem node) {
+        int shortName = node.getStoredShortName();
+        return shortName >= 0 && shortName < shortNamesValid && shortNameIndex.get(shortName) == node;
+    }
+
+
+    private WBSVisualTreeItem getNextInPreOrder(WBSVisualTreeItem node) {
+        if(!node.isLeaf()) {
+            return node.getChildren().get(0);
+        }
+        for(; node.getParent() != null; node = node.getParent()) {  // next sibling of the closest ancestor that has one
+            ArrayList<WBSVisualTreeItem> siblings = node.getParent().getChildren();
+            int index = siblings.indexOf(node);
+            if(index + 1 < siblings.size()) {
+                return siblings.get(index + 1);
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns a uid that is not used by any node in the document. The counter is seeded from the
+     * largest uid that has been indexed so files with existing uids keep counting up from them.
+     * Safe to call from multiple threads
+     *
+     * @return a new unique uid
+     */
+    public int allocateUid() {
+        int uid = nextUid.getAndIncrement();
+        while(uidIndex.containsKey(uid)) {  // only happens once the counter wraps into old hash based uids
+            uid = nextUid.getAndIncrement();
+        }
+        return uid;
+    }
+
+
+    /**
+     * Records that the document was changed
+     */
+    public void markModified() {
+        boolean wasSaved = isSaved();
+        modificationCount += 1;
+        if(wasSaved && transactionDepth == 0) {  // a transaction only reports where it ends up
+            fireSavedStateChanged(false);
+        }
+    }
+
+
+    /**
+     * Records that the document differs from its save file in ways that were not tracked node by
+     * node, such as when it was recovered from a copy of unsaved changes. The changed nodes can not
+     * be trusted until the whole document has been saved again
+     */
+    public void markUntrackedChanges() {
+        markModified();
+        untrackedChangesCount = modificationCount;
+    }
+
+
+    /**
+     * Returns whether or not the next save has to write the whole document because some of its
+     * changes since the last save were not tracked node by node
+     *
+     * @return true if only saving the changed nodes would lose changes
+     */
+    public boolean needsFullSave() {
+        return untrackedChangesCount >= 0;
+    }
+
+
+    /**
+     * Records that the document in its current state was saved
+     */
+    public void markSaved() {
+        boolean wasSaved = isSaved();
+        savedModificationCount = modificationCount;
+        changedNodes.clear();
+        removedNodes.clear();
+        untrackedChangesCount = -1;
+        if(!wasSaved && transactionDepth == 0) {
+            fireSavedStateChanged(true);
+        }
+    }
+
+
+    /**
+     * Records that the document was saved as it was at an earlier modification count. Used when a
+     * snapshot is written in the background, edits made after the snapshot was taken still count
+     * as unsaved
+     *
+     * @param savedCount the modification count of the snapshot that was saved
+     */
+    public void markSaved(long savedCount) {
+        boolean wasSaved = isSaved();
+        savedModificationCount = savedCount;
+        changedNodes.values().removeIf(count -> count < savedCount);  // changes made after the save was taken stay
+        removedNodes.values().removeIf(count -> count < savedCount);
+        if(untrackedChangesCount <= savedCount) {
+            untrackedChangesCount = -1;
+        }
+        boolean saved = isSaved();
+        if(wasSaved != saved && transactionDepth == 0) {
+            fireSavedStateChanged(saved);
+        }
+    }
+
+
+    /**
+     * Returns whether the document has been changed since it was last saved. Can be called from
+     * any thread
+     *
+     * @return true if there are no unsaved changes
+     */
+    public boolean isSaved() {
+        return modificationCount == savedModificationCount;
+    }
+
+
+    /**
+     * Starts a group of edits. Until the matching commitTransaction, durations of nodes with
+     * children are not rolled up, the schedule is recomputed once instead of after every duration
+     * change, and saved state listeners are not called. Transactions can be nested, only the
+     * outermost commit does the deferred work
+     */
+    public void beginTransaction() {
+        if(transactionDepth == 0) {
+            savedBeforeTransaction = isSaved();
+        }
+        transactionDepth += 1;
+    }
+
+
+    /**
+     * Ends a group of edits started with beginTransaction and brings every deferred value up to
+     * date in one pass
+     */
+    public void commitTransaction() {
+        if(transactionDepth == 0) {
+            return;
+        }
+        transactionDepth -= 1;
+        if(transactionDepth > 0) {
+            return;
+        }
+
+        flushDurations();
+        if(history != null) {
+            history.endStep();
+        }
+        if(isSaved() != savedBeforeTransaction) {
+            fireSavedStateChanged(isSaved());
+        }
+    }
+
+
+    /**
+     * Returns whether or not edits are being grouped into a transaction
+     *
+     * @return true if beginTransaction has been called more times than commitTransaction
+     */
+    public boolean isInTransaction() {
+        return transactionDepth > 0;
+    }
+
+
+    /**
+     * Records that the durations above a node need to be rolled up when the transaction commits
+     *
+     * @param node the node whose duration is out of date
+     */
+    void deferDurationRollup(WBSVisualTreeItem node) {
+        pendingDurationNodes.add(node);
+    }
+
+
+    /**
+     * Rolls up every duration deferred by the current transaction
+     */
+    void flushDurations() {
+        if(!pendingDurationNodes.isEmpty()) {
+            WBSVisualTreeItem.recomputeDurations(pendingDurationNodes);
+            pendingDurationNodes.clear();
+        }
+    }
+
+
+    /**
+     * Adds a listener that is called with the new saved state whenever the document goes from saved
+     * to unsaved or back. Listeners are called on the thread that made the change
+     *
+     * @param listener the listener to add
+     */
+    public void addSavedStateListener(Consumer<Boolean> listener) {
+        savedStateListeners.add(listener);
+    }
+
+
+    /**
+     * Removes a listener added with addSavedStateListener
+     *
+     * @param listener the listener to remove
+     */
+    public void removeSavedStateListener(Consumer<Boolean> listener) {
+        savedStateListeners.remove(listener);
+    }
+
+
+    private void fireSavedStateChanged(boolean saved) {
+        for(Consumer<Boolean> listener : savedStateListeners) {
+            listener.accept(saved);
+        }
+    }
+
+
+    /**
+     * Returns a number that changes every time the document is modified
+     *
+     * @return the modification count
+     */
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+
+    /**
+     * Counts an incremental duration update. Durations are rolled up by adding differences so
+     * every so often the path being updated is summed exactly instead
+     *
+     * @return true if the caller should recompute exactly instead of applying a difference
+     */
+    boolean countDurationUpdate() {
+        durationUpdates += 1;
+        if(durationUpdates >= DURATION_RECOMPUTE_INTERVAL) {
+            durationUpdates = 0;
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Adds a node to the uid index
+     *
+     * @param node the node to add
+     */
+    void register(WBSVisualTreeItem node) {
+        int uid = node.getUid();
+        uidIndex.put(uid, node);
+        removedNodes.remove(uid);
+        changedNodes.put(uid, modificationCount);
+        structureChanged();
+        if(uid != Integer.MAX_VALUE) {
+            nextUid.accumulateAndGet(uid + 1, Math::max);  // keep the counter past every uid seen
+        }
+    }
+
+
+    /**
+     * Removes a node from the uid index and removes its predecessor links
+     *
+     * @param node the node to remove
+     */
+    void unregister(WBSVisualTreeItem node) {
+        if(uidIndex.get(node.getUid()) == node) {
+            dependencies.removeNode(node.getUid());  // while still indexed so the links can find the node
+            uidIndex.remove(node.getUid());
+            changedNodes.remove(node.getUid());
+            removedNodes.put(node.getUid(), modificationCount);
+            structureChanged();
+        }
+    }
+}
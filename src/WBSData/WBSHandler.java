@@ -3,7 +3,9 @@ package WBSData;
 import Gui.TreeTable;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.function.Consumer;
 
 /**
  * Class to manage WBSVisualTreeItem classes and read and write to different file formats
@@ -15,6 +17,8 @@ public class WBSHandler {
     private HashMap<Integer, WBSVisualTreeItem> structures;
     private HashMap<Integer, File> wbsSaveNames;
     private HashMap<Integer, TreeTable> wbsGuiObjects;
+    private HashMap<Integer, Consumer<Boolean>> documentListeners;
+    private ArrayList<Consumer<Integer>> saveStateListeners;
     private static int currentWBSUid = 0;
 
     private static final int TABLE_INDENTED_COLUMN = 1;
@@ -27,6 +31,8 @@ public class WBSHandler {
         structures = new HashMap<>();
         wbsSaveNames = new HashMap<>();
         wbsGuiObjects = new HashMap<>();
+        documentListeners = new HashMap<>();
+        saveStateListeners = new ArrayList<>();
     }
 
 
@@ -44,6 +50,12 @@ public class WBSHandler {
         this.wbsSaveNames.put(currentWBSUid, file);
         this.wbsGuiObjects.put(currentWBSUid, new TreeTable());
 
+        int wbsUid = currentWBSUid;
+        Consumer<Boolean> listener = saved -> fireSaveStateChanged(wbsUid);
+        wbs.getDocument().addSavedStateListener(listener);
+        wbs.getDocument().getHistory();  // start recording edits so they can be undone
+        this.documentListeners.put(currentWBSUid, listener);
+
         return currentWBSUid;
     }
 
@@ -119,24 +131,38 @@ public class WBSHandler {
      */
     public void setWBSSaveFile(int wbsUid, File newFile) {
         wbsSaveNames.put(wbsUid, newFile);
+        fireSaveStateChanged(wbsUid);
+    }
+
+
+    /**
+     * Adds a listener that is called with the uid of a wbs whenever its save file changes or it
+     * goes from saved to unsaved or back. Listeners are called on the thread that made the change
+     *
+     * @param listener the listener to add
+     */
+    public void addSaveStateListener(Consumer<Integer> listener) {
+        saveStateListeners.add(listener);
+    }
+
+
+    private void fireSaveStateChanged(int wbsUid) {
+        for(Consumer<Integer> listener : saveStateListeners) {
+            listener.accept(wbsUid);
+        }
     }
 
 
     /**
-     * returns whether or not the wasModifiedFlag of a wbs is set or cleared. If
-     * it is set then the wbs is not saved. If the flag is cleared, then the wbs
-     * is saved.
+     * returns whether or not the wbs has been modified since it was last saved.
+     * Only compares the document's modification counters so it is constant time
+     * and safe to call from any thread
      *
      * @param wbsUid the wbs to check whether or not has been saved
      * @return true if wbs is saved, false otherwise
      */
     public boolean isWBSSaved(int wbsUid) {
-        for(WBSVisualTreeItem node : structures.get(wbsUid).getTreeNodes()) {
-            if(node.getWasModified() == true)  {
-                return false;
-            }
-        }
-        return true;
+        return structures.get(wbsUid).getDocument().isSaved();
     }
 
 
@@ -146,6 +172,7 @@ public class WBSHandler {
      * @param wbsUid the uid of the wbs to be removed
      */
     public void removeWBS(int wbsUid) {
+        structures.get(wbsUid).getDocument().removeSavedStateListener(documentListeners.remove(wbsUid));
         structures.remove(wbsUid);
         wbsSaveNames.remove(wbsUid);
         wbsGuiObjects.remove(wbsUid);
@@ -0,0 +1,123 @@
+package WBSData;
+
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * An unchangeable copy of one node and, through its children, of the branch below it. A node that
+ * has not changed since the last snapshot keeps the same copy, so snapshots taken one after another
+ * share every branch that was not edited in between. Because a branch can be shared by more than
+ * one parent it does not know its parent, level, or short name, those come from the WBSSnapshot
+ * it is part of
+ */
+public final class WBSNodeSnapshot {
+    private static final WBSNodeSnapshot[] NO_CHILDREN = new WBSNodeSnapshot[0];
+
+    private final int uid;
+    private final String nodeName;
+    private final double duration;
+    private final double personDuration;
+    private final String resource;
+    private final String notes1;
+    private final String notes2;
+    private final Color nodeColor;
+    private final int[] predecessors;
+    private final WBSNodeSnapshot[] children;
+
+
+    /**
+     * Copies the values of a node. The children must already have been copied
+     *
+     * @param node         the node to copy
+     * @param predecessors the uids of the predecessors of the node
+     * @param children     copies of the children of the node in order
+     */
+    WBSNodeSnapshot(WBSVisualTreeItem node, int[] predecessors, WBSNodeSnapshot[] children) {
+        uid = node.getUid();
+        nodeName = node.getNodeName();
+        duration = node.getDuration();
+        resource = node.getResource();
+        notes1 = node.getNotes1();
+        notes2 = node.getNotes2();
+        nodeColor = node.getNodeColor();
+        this.predecessors = predecessors;
+        this.children = children.length == 0 ? NO_CHILDREN : children;
+
+        // same calculation as the live node but from the copied children so the branch is not walked again
+        double multiplier = node.getResourceMultiplier();
+        double newPersonDuration = multiplier == -1 ? -1 : duration * multiplier;
+        for(WBSNodeSnapshot child : this.children) {
+            if(child.personDuration == -1 || newPersonDuration == -1) {
+                newPersonDuration = -1;
+            } else {
+                newPersonDuration += child.personDuration;
+            }
+        }
+        personDuration = newPersonDuration;
+    }
+
+
+    public int getUid() {
+        return uid;
+    }
+
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+
+    public double getPersonDuration() {
+        return personDuration;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public String getNotes1() {
+        return notes1;
+    }
+
+    public String getNotes2() {
+        return notes2;
+    }
+
+    public Color getNodeColor() {
+        return nodeColor;
+    }
+
+    public int[] getPredecessors() {
+        return predecessors.clone();
+    }
+
+    public int getPredecessorCount() {
+        return predecessors.length;
+    }
+
+    public int getPredecessor(int index) {
+        return predecessors[index];
+    }
+
+    public List<WBSNodeSnapshot> getChildren() {
+        return Collections.unmodifiableList(Arrays.asList(children));
+    }
+
+    public int getChildCount() {
+        return children.length;
+    }
+
+    public WBSNodeSnapshot getChild(int index) {
+        return children[index];
+    }
+
+    public boolean isLeaf() {
+        return children.length == 0;
+    }
+}
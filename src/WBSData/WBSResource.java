@@ -1,5 +1,204 @@
 package WBSData;
 
+import java.util.ArrayList;
+
+
+/**
+ * A single resource assigned to a wbs node. Resources are entered as a comma separated list of
+ * names with an optional allocation percentage in brackets, for example "Alice[50%], Bob"
+ */
 public class WBSResource {
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final String name;
+    private final double percentage;
+
+
+    /**
+     * Creates a new resource
+     *
+     * @param name       the name of the resource
+     * @param percentage how much of the resource is allocated, 100 means fully allocated
+     */
+    public WBSResource(String name, double percentage) {
+        this.name = name;
+        this.percentage = percentage;
+    }
+
+
+    /**
+     * Returns the name of the resource
+     *
+     * @return the resource name with surrounding whitespace removed
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Returns the allocation percentage of the resource
+     *
+     * @return the percentage, 100 if none was given
+     */
+    public double getPercentage() {
+        return percentage;
+    }
+
+
+    /**
+     * Returns the multiplier this resource contributes to person duration
+     *
+     * @return the percentage as a fraction
+     */
+    public double getMultiplier() {
+        return percentage / 100;
+    }
+
+
+    /**
+     * Parses a resource string in a single pass without splitting or using regular expressions.
+     * Trailing commas are ignored, empty resources, resources that start with a bracket, and
+     * brackets that do not hold a number followed by a percent sign are errors
+     *
+     * @param s the resource string
+     * @return  list of the parsed resources, or null if the string could not be parsed
+     */
+    public static ArrayList<WBSResource> parseResources(String s) {
+        ArrayList<WBSResource> resources = new ArrayList<>();
+        int length = s.length();
+        while(length > 0 && s.charAt(length - 1) == ',') {  // trailing empty resources are ignored
+            length--;
+        }
+
+        int start = 0;
+        while(start < length) {
+            int end = s.indexOf(',', start);
+            if(end == -1 || end > length) {
+                end = length;
+            }
+
+            WBSResource resource = parseResource(s, start, end);
+            if(resource == null) {
+                return null;
+            }
+            resources.add(resource);
+            start = end + 1;
+        }
+
+        return resources;
+    }
+
+
+    /**
+     * Returns the sum of the multipliers of a list of resources
+     *
+     * @param resources the resources, may be null
+     * @return          the summed multiplier or -1 if resources is null
+     */
+    public static double getMultiplier(ArrayList<WBSResource> resources) {
+        if(resources == null) {
+            return -1;  // -1 means a parsing error
+        }
+
+        double multiplier = 0;
+        for(WBSResource resource : resources) {
+            multiplier += resource.getMultiplier();
+        }
+        return multiplier;
+    }
+
+
+    /**
+     * Parses one resource out of a substring of the resource string
+     *
+     * @param s     the resource string
+     * @param start index of the first character of the resource
+     * @param end   index one past the last character of the resource
+     * @return      the parsed resource or null on a parsing error
+     */
+    private static WBSResource parseResource(String s, int start, int end) {
+        if(start == end || s.charAt(start) == '[') {  // can't be an empty resource
+            return null;
+        }
+
+        int open = s.indexOf('[', start);
+        int close = (open == -1 || open >= end) ? -1 : s.indexOf(']', open + 1);
+        if(close == -1 || close >= end) {  // no percentage given so the resource is fully allocated
+            return new WBSResource(s.substring(start, end).trim(), 100);
+        }
+
+        int percentSign = s.indexOf('%', open + 1);
+        if(percentSign == -1 || percentSign >= close || close - open - 1 < 2) {  // must contain percentage and not only percentage
+            return null;
+        }
+
+        double percentage = parseNumber(s, open + 1, percentSign);
+        if(Double.isNaN(percentage)) {
+            return null;
+        }
+        return new WBSResource(s.substring(start, open).trim(), percentage);
+    }
+
+
+    /**
+     * Parses a decimal number surrounded by optional whitespace without creating a substring
+     *
+     * @param s     the string to read from
+     * @param start index of the first character
+     * @param end   index one past the last character
+     * @return      the number or NaN if the characters are not a number
+     */
+    private static double parseNumber(String s, int start, int end) {
+        while(start < end && Character.isWhitespace(s.charAt(start))) start++;
+        while(end > start && Character.isWhitespace(s.charAt(end - 1))) end--;
+
+        boolean negative = false;
+        if(start < end && (s.charAt(start) == '-' || s.charAt(start) == '+')) {
+            negative = s.charAt(start) == '-';
+            start++;
+        }
+
+        long mantissa = 0;
+        int decimalPlaces = 0;
+        int digits = 0;
+        boolean seenPoint = false;
+        for(int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if(c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if(c >= '0' && c <= '9') {
+                if(mantissa >= MAX_EXACT_MANTISSA / 10) {  // too many digits to do exactly so let the jdk handle it
+                    return parseNumberSlow(s, start, end, negative);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if(seenPoint) {
+                    decimalPlaces++;
+                }
+            } else {
+                return Double.NaN;
+            }
+        }
+
+        if(digits == 0) {
+            return Double.NaN;
+        }
+        if(decimalPlaces >= POWERS_OF_TEN.length) {
+            return parseNumberSlow(s, start, end, negative);
+        }
+        double value = mantissa / POWERS_OF_TEN[decimalPlaces];  // both operands are exact so the result is correctly rounded
+        return negative ? -value : value;
+    }
+
+
+    private static double parseNumberSlow(String s, int start, int end, boolean negative) {
+        double value = Double.parseDouble(s.substring(start, end));
+        return negative ? -value : value;
+    }
 
 }
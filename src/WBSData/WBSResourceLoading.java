@@ -0,0 +1,307 @@
+package WBSData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+/**
+ * How much of each resource is in use over time when the leaves of a wbs are worked on. A leaf
+ * uses each of its resources at the resource's percentage from when it starts until it finishes.
+ * Resources on nodes with children are not loaded because their work is done by the children.
+ * Every resource can be used at 100% at a time, leveling delays leaves until their resources are
+ * free
+ */
+public class WBSResourceLoading {
+    private static final double CAPACITY = 100;
+    private static final double TOLERANCE = 1e-9;
+
+    private final HashMap<Integer, Integer> nodeIndexes;  // node uid, index into times
+    private final double[] times;                         // start of node i at 2i and finish at 2i + 1
+    private final HashMap<Integer, Double> earlyStarts;
+    private final HashMap<String, ResourceTimeline> timelines;
+
+
+    /**
+     * The total percentage of a resource in use over time. Stored as the times the usage changes
+     * so that finding a free period and booking a leaf only visit the periods it overlaps.
+     * Neighboring periods with the same usage are merged so fully booked stretches are skipped in
+     * one step
+     */
+    private static class ResourceTimeline {
+        private final TreeMap<Double, Double> usage = new TreeMap<>();  // time, usage from that time until the next time
+
+        double getUsage(double time) {
+            Map.Entry<Double, Double> entry = usage.floorEntry(time);
+            return entry == null ? 0 : entry.getValue();
+        }
+
+        /**
+         * Returns the earliest time at or after a time when an amount of the resource is free for a
+         * duration. Amounts above the capacity wait until nothing else is using the resource
+         */
+        double findEarliestFit(double from, double duration, double amount) {
+            if(duration <= 0) {  // milestones don't use anything
+                return from;
+            }
+            double limit = Math.max(CAPACITY, amount) + TOLERANCE;
+            double start = from;
+            while(true) {
+                double end = start + duration;
+                Double periodStart = usage.floorKey(start);
+                if(periodStart == null) {
+                    periodStart = usage.isEmpty() ? null : usage.firstKey();
+                    if(periodStart == null || periodStart >= end) {
+                        return start;  // nothing booked in the way
+                    }
+                }
+
+                Double conflictEnd = null;
+                for(Map.Entry<Double, Double> entry : usage.tailMap(periodStart, true).entrySet()) {
+                    if(entry.getKey() >= end) {
+                        break;
+                    }
+                    if(entry.getValue() + amount > limit) {
+                        conflictEnd = usage.higherKey(entry.getKey());
+                        break;
+                    }
+                }
+                if(conflictEnd == null) {  // free for the whole duration, or booked forever which can't be waited out
+                    return start;
+                }
+                start = conflictEnd;
+            }
+        }
+
+        /**
+         * Books an amount of the resource from a start time until an end time
+         */
+        void add(double start, double end, double amount) {
+            if(end <= start || amount == 0) {
+                return;
+            }
+            split(start);
+            split(end);
+            for(Map.Entry<Double, Double> entry : usage.subMap(start, true, end, false).entrySet()) {
+                entry.setValue(entry.getValue() + amount);
+            }
+            merge(start);
+            merge(end);
+        }
+
+        private void split(double time) {
+            if(!usage.containsKey(time)) {
+                usage.put(time, getUsage(time));
+            }
+        }
+
+        private void merge(double time) {  // removes a change in usage that does not change anything
+            Map.Entry<Double, Double> before = usage.lowerEntry(time);
+            double usageBefore = before == null ? 0 : before.getValue();
+            if(Math.abs(usage.get(time) - usageBefore) <= TOLERANCE) {
+                usage.remove(time);
+            }
+        }
+    }
+
+
+    private WBSResourceLoading(WBSDocument document, boolean leveled) {
+        WBSSchedule schedule = document.getSchedule();
+        timelines = new HashMap<>();
+
+        times = schedule.placeLeaves((node, earliestStart, duration) -> {
+            ArrayList<String> names = new ArrayList<>();
+            ArrayList<Double> amounts = new ArrayList<>();
+            getAmounts(node, names, amounts);
+
+            double start = earliestStart;
+            if(leveled) {
+                boolean moved = true;
+                while(moved) {  // every resource must be free at the same time
+                    moved = false;
+                    for(int i = 0; i < names.size(); i++) {
+                        double fit = getTimeline(names.get(i)).findEarliestFit(start, duration, amounts.get(i));
+                        if(fit > start) {
+                            start = fit;
+                            moved = true;
+                        }
+                    }
+                }
+            }
+            for(int i = 0; i < names.size(); i++) {
+                getTimeline(names.get(i)).add(start, start + duration, amounts.get(i));
+            }
+            return start;
+        });
+
+        WBSVisualTreeItem[] nodes = schedule.getNodes();
+        nodeIndexes = new HashMap<>(nodes.length * 2);
+        earlyStarts = new HashMap<>(nodes.length * 2);
+        for(int i = 0; i < nodes.length; i++) {
+            nodeIndexes.put(nodes[i].getUid(), i);
+            earlyStarts.put(nodes[i].getUid(), schedule.getEarlyStart(nodes[i].getUid()));
+        }
+    }
+
+
+    /**
+     * Loads the resources of a wbs with every leaf starting as early as its predecessors allow
+     *
+     * @param document the document of the wbs
+     * @return         the loading, or null if the predecessors form a cycle
+     */
+    public static WBSResourceLoading computeLoading(WBSDocument document) {
+        if(document.getSchedule().hasCycle()) {
+            return null;
+        }
+        return new WBSResourceLoading(document, false);
+    }
+
+
+    /**
+     * Levels the resources of a wbs by delaying leaves until all of their resources are free.
+     * Leaves are placed one at a time by their earliest start and then by their latest start, each
+     * at the earliest time its predecessors and resources allow
+     *
+     * @param document the document of the wbs
+     * @return         the leveled loading, or null if the predecessors form a cycle
+     */
+    public static WBSResourceLoading level(WBSDocument document) {
+        if(document.getSchedule().hasCycle()) {
+            return null;
+        }
+        return new WBSResourceLoading(document, true);
+    }
+
+
+    /**
+     * Returns when a node starts in this loading
+     *
+     * @param uid the uid of the node
+     * @return    the start time or -1 if no node has that uid
+     */
+    public double getStart(int uid) {
+        Integer i = nodeIndexes.get(uid);
+        return i == null ? -1 : times[2 * i];
+    }
+
+
+    /**
+     * Returns when a node finishes in this loading
+     *
+     * @param uid the uid of the node
+     * @return    the finish time or -1 if no node has that uid
+     */
+    public double getFinish(int uid) {
+        Integer i = nodeIndexes.get(uid);
+        return i == null ? -1 : times[2 * i + 1];
+    }
+
+
+    /**
+     * Returns how long leveling delayed a node past its early start
+     *
+     * @param uid the uid of the node
+     * @return    the delay or -1 if no node has that uid
+     */
+    public double getDelay(int uid) {
+        Integer i = nodeIndexes.get(uid);
+        return i == null ? -1 : times[2 * i] - earlyStarts.get(uid);
+    }
+
+
+    /**
+     * Returns when the root node finishes in this loading
+     *
+     * @return the length of the project
+     */
+    public double getProjectFinish() {
+        return times[1];  // the root node is always node 0
+    }
+
+
+    /**
+     * Returns the names of every resource used by a leaf
+     *
+     * @return set of resource names
+     */
+    public Set<String> getResourceNames() {
+        return timelines.keySet();
+    }
+
+
+    /**
+     * Returns the percentage of a resource in use over time
+     *
+     * @param resource the name of the resource
+     * @return         map of the times the usage changes to the usage from that time until the next
+     *                 time, empty if the resource is not used
+     */
+    public TreeMap<Double, Double> getLoad(String resource) {
+        ResourceTimeline timeline = timelines.get(resource);
+        return timeline == null ? new TreeMap<>() : new TreeMap<>(timeline.usage);
+    }
+
+
+    /**
+     * Returns the highest percentage of a resource in use at any time
+     *
+     * @param resource the name of the resource
+     * @return         the peak usage, 0 if the resource is not used
+     */
+    public double getPeakLoad(String resource) {
+        ResourceTimeline timeline = timelines.get(resource);
+        double peak = 0;
+        if(timeline != null) {
+            for(double usage : timeline.usage.values()) {
+                peak = Math.max(peak, usage);
+            }
+        }
+        return peak;
+    }
+
+
+    /**
+     * Returns the resources that are used at more than 100% at some time
+     *
+     * @return list of resource names
+     */
+    public ArrayList<String> getOverallocatedResources() {
+        ArrayList<String> resources = new ArrayList<>();
+        for(String resource : timelines.keySet()) {
+            if(getPeakLoad(resource) > CAPACITY + TOLERANCE) {
+                resources.add(resource);
+            }
+        }
+        return resources;
+    }
+
+
+    private ResourceTimeline getTimeline(String resource) {
+        return timelines.computeIfAbsent(resource, k -> new ResourceTimeline());
+    }
+
+
+    /**
+     * Fills lists with the resources of a leaf and the percentage of each it uses. A resource
+     * listed more than once uses the sum of its percentages. Resources that can't be parsed are
+     * not loaded
+     */
+    private static void getAmounts(WBSVisualTreeItem node, ArrayList<String> names, ArrayList<Double> amounts) {
+        ArrayList<WBSResource> resources = node.getResources();
+        if(resources == null) {
+            return;
+        }
+        for(WBSResource resource : resources) {
+            int i = names.indexOf(resource.getName());
+            if(i == -1) {
+                names.add(resource.getName());
+                amounts.add(resource.getPercentage());
+            } else {
+                amounts.set(i, amounts.get(i) + resource.getPercentage());
+            }
+        }
+    }
+}
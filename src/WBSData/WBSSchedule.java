@@ -0,0 +1,504 @@
+package WBSData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+
+/**
+ * Critical path schedule of a document. Every node has a start event and a finish event. A leaf
+ * finishes its duration after it starts, a node with children starts before its children and
+ * finishes after them, and a node starts after each of its predecessors finishes. The early times
+ * are the longest paths from the start of the project and the late times are found from the
+ * longest paths to the finish of the root node.
+ *
+ * The schedule is computed in linear time the first time it is queried after the structure of the
+ * tree or its predecessors change. Changing the duration of a leaf only updates the events before
+ * and after that leaf whose times actually change
+ */
+public class WBSSchedule {
+    private static final double CRITICAL_TOLERANCE = 1e-9;
+
+    private final WBSDocument document;
+    private boolean valid;
+    private boolean hasCycle;
+
+    private HashMap<Integer, Integer> nodeIndexes;  // node uid, index of the node. Events of node i are 2i (start) and 2i + 1 (finish)
+    private WBSVisualTreeItem[] nodes;
+    private boolean[] leaf;
+    private double[] durations;
+
+    private int[] outStart;   // events reached from event e are outTarget[outStart[e]] to outTarget[outStart[e + 1] - 1]
+    private int[] outTarget;
+    private int[] inStart;    // same layout for the events that reach event e
+    private int[] inSource;
+    private int[] topologicalPosition;
+    private boolean[] queued;  // events waiting in an incremental update, always all false in between updates
+
+    private double[] head;  // longest path from the start of the project to each event
+    private double[] tail;  // longest path from each event to the finish of the project
+
+
+    /**
+     * Creates a schedule for a document. Nothing is computed until the schedule is queried
+     *
+     * @param document the document to schedule
+     */
+    WBSSchedule(WBSDocument document) {
+        this.document = document;
+        valid = false;
+    }
+
+
+    /**
+     * Marks the schedule to be fully recomputed the next time it is queried
+     */
+    void invalidate() {
+        valid = false;
+        nodeIndexes = null;  // release the arrays until they are needed again
+        nodes = null;
+        outTarget = null;
+        inSource = null;
+    }
+
+
+    /**
+     * Returns whether or not the predecessors form a cycle so that no schedule exists
+     *
+     * @return true if there is a cycle
+     */
+    public boolean hasCycle() {
+        update();
+        return hasCycle;
+    }
+
+
+    /**
+     * Returns the uids of the nodes that could not be scheduled because they are part of a cycle
+     * or come after one
+     *
+     * @return list of uids, empty if there is no cycle
+     */
+    public ArrayList<Integer> getCycleUids() {
+        update();
+        ArrayList<Integer> uids = new ArrayList<>();
+        if(!hasCycle) {
+            return uids;
+        }
+        for(int i = 0; i < nodes.length; i++) {
+            if(topologicalPosition[2 * i] == -1 || topologicalPosition[2 * i + 1] == -1) {
+                uids.add(nodes[i].getUid());
+            }
+        }
+        return uids;
+    }
+
+
+    /**
+     * Returns the time the root node finishes
+     *
+     * @return the length of the project or -1 if there is a cycle
+     */
+    public double getProjectFinish() {
+        update();
+        if(hasCycle) {
+            return -1;
+        }
+        return head[1];  // the root node is node 0 and every event leads to its finish
+    }
+
+
+    /**
+     * Returns the earliest time a node can start
+     *
+     * @param uid the uid of the node
+     * @return    the early start or -1 if there is a cycle or no node has that uid
+     */
+    public double getEarlyStart(int uid) {
+        int i = getIndex(uid);
+        return i == -1 ? -1 : head[2 * i];
+    }
+
+
+    /**
+     * Returns the earliest time a node can finish
+     *
+     * @param uid the uid of the node
+     * @return    the early finish or -1 if there is a cycle or no node has that uid
+     */
+    public double getEarlyFinish(int uid) {
+        int i = getIndex(uid);
+        return i == -1 ? -1 : head[2 * i + 1];
+    }
+
+
+    /**
+     * Returns the latest time a node can start without delaying the project
+     *
+     * @param uid the uid of the node
+     * @return    the late start or -1 if there is a cycle or no node has that uid
+     */
+    public double getLateStart(int uid) {
+        int i = getIndex(uid);
+        return i == -1 ? -1 : head[1] - tail[2 * i];
+    }
+
+
+    /**
+     * Returns the latest time a node can finish without delaying the project
+     *
+     * @param uid the uid of the node
+     * @return    the late finish or -1 if there is a cycle or no node has that uid
+     */
+    public double getLateFinish(int uid) {
+        int i = getIndex(uid);
+        return i == -1 ? -1 : head[1] - tail[2 * i + 1];
+    }
+
+
+    /**
+     * Returns how long a node can be delayed without delaying the project
+     *
+     * @param uid the uid of the node
+     * @return    the slack or -1 if there is a cycle or no node has that uid
+     */
+    public double getSlack(int uid) {
+        int i = getIndex(uid);
+        return i == -1 ? -1 : getSlack(i, head[1]);
+    }
+
+
+    /**
+     * Returns whether or not delaying a node delays the project
+     *
+     * @param uid the uid of the node
+     * @return    true if the node has no slack, false if it does or the schedule has a cycle
+     */
+    public boolean isCritical(int uid) {
+        int i = getIndex(uid);
+        return i != -1 && isCritical(i, head[1]);
+    }
+
+
+    /**
+     * Returns the leaves on the critical path sorted by their early start
+     *
+     * @return list of uids, empty if there is a cycle
+     */
+    public ArrayList<Integer> getCriticalPath() {
+        update();
+        ArrayList<Integer> uids = new ArrayList<>();
+        if(hasCycle) {
+            return uids;
+        }
+
+        ArrayList<Integer> criticalLeaves = new ArrayList<>();
+        for(int i = 0; i < nodes.length; i++) {
+            if(leaf[i] && isCritical(i, head[1])) {
+                criticalLeaves.add(i);
+            }
+        }
+        criticalLeaves.sort(Comparator.comparingDouble(i -> head[2 * i]));
+        for(int i : criticalLeaves) {
+            uids.add(nodes[i].getUid());
+        }
+        return uids;
+    }
+
+
+    /**
+     * Updates the schedule after the duration of a node changed. Only the events whose times
+     * change are visited
+     *
+     * @param node the node whose duration changed
+     */
+    void durationChanged(WBSVisualTreeItem node) {
+        if(!valid || hasCycle) {  // everything is computed on the next query anyway
+            return;
+        }
+        Integer index = nodeIndexes.get(node.getUid());
+        if(index == null || nodes[index] != node || !leaf[index] || durations[index] == node.getDuration()) {
+            return;  // only leaves add their duration to the schedule
+        }
+        durations[index] = node.getDuration();
+
+        // forward from the finish of the node in topological order
+        PriorityQueue<Integer> queue = new PriorityQueue<>(Comparator.comparingInt(e -> topologicalPosition[e]));
+        queue.add(2 * index + 1);
+        queued[2 * index + 1] = true;
+        while(!queue.isEmpty()) {
+            int event = queue.poll();
+            queued[event] = false;
+            double newHead = computeHead(event);
+            if(newHead == head[event]) {
+                continue;
+            }
+            head[event] = newHead;
+            for(int j = outStart[event]; j < outStart[event + 1]; j++) {
+                if(!queued[outTarget[j]]) {
+                    queued[outTarget[j]] = true;
+                    queue.add(outTarget[j]);
+                }
+            }
+        }
+
+        // backward from the start of the node in reverse topological order
+        queue = new PriorityQueue<>(Comparator.comparingInt(e -> -topologicalPosition[e]));
+        queue.add(2 * index);
+        queued[2 * index] = true;
+        while(!queue.isEmpty()) {
+            int event = queue.poll();
+            queued[event] = false;
+            double newTail = computeTail(event);
+            if(newTail == tail[event]) {
+                continue;
+            }
+            tail[event] = newTail;
+            for(int j = inStart[event]; j < inStart[event + 1]; j++) {
+                if(!queued[inSource[j]]) {
+                    queued[inSource[j]] = true;
+                    queue.add(inSource[j]);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Chooses when a leaf starts during placeLeaves
+     */
+    interface LeafPlacer {
+        /**
+         * Returns the start time of a leaf
+         *
+         * @param node           the leaf
+         * @param earliestStart  the earliest time its links allow it to start
+         * @param duration       the duration of the leaf
+         * @return               the start time, not before earliestStart
+         */
+        double place(WBSVisualTreeItem node, double earliestStart, double duration);
+    }
+
+
+    /**
+     * Runs the schedule forward again letting a placer choose when each leaf starts. Leaves are
+     * placed in the order they become ready, earliest start in this schedule first and then
+     * earliest late time, so that the placer sees every leaf that was placed before it
+     *
+     * @param placer chooses the start time of each leaf
+     * @return       times of the events, start of node i at 2i and finish at 2i + 1 in the order
+     *               of getNodes(), or null if there is a cycle
+     */
+    double[] placeLeaves(LeafPlacer placer) {
+        update();
+        if(hasCycle) {
+            return null;
+        }
+
+        int events = head.length;
+        double[] times = new double[events];
+        int[] remainingIn = new int[events];
+        PriorityQueue<Integer> ready = new PriorityQueue<>(
+            Comparator.<Integer>comparingDouble(e -> head[e])
+                .thenComparingDouble(e -> -tail[e])  // larger tail means a smaller late time
+                .thenComparingInt(e -> e)
+        );
+        for(int e = 0; e < events; e++) {
+            remainingIn[e] = inStart[e + 1] - inStart[e];
+            if(remainingIn[e] == 0) {
+                ready.add(e);
+            }
+        }
+        while(!ready.isEmpty()) {
+            int event = ready.poll();
+            double time = 0;
+            for(int j = inStart[event]; j < inStart[event + 1]; j++) {
+                time = Math.max(time, times[inSource[j]] + weight(inSource[j], event));
+            }
+            if((event & 1) == 0 && leaf[event >> 1]) {
+                time = Math.max(time, placer.place(nodes[event >> 1], time, durations[event >> 1]));
+            }
+            times[event] = time;
+
+            for(int j = outStart[event]; j < outStart[event + 1]; j++) {
+                remainingIn[outTarget[j]] -= 1;
+                if(remainingIn[outTarget[j]] == 0) {
+                    ready.add(outTarget[j]);
+                }
+            }
+        }
+        return times;
+    }
+
+
+    /**
+     * Returns the nodes in the order used by placeLeaves
+     *
+     * @return the nodes or null if there is a cycle
+     */
+    WBSVisualTreeItem[] getNodes() {
+        update();
+        return hasCycle ? null : nodes;
+    }
+
+
+    private int getIndex(int uid) {
+        update();
+        if(hasCycle) {
+            return -1;
+        }
+        Integer index = nodeIndexes.get(uid);
+        return index == null ? -1 : index;
+    }
+
+
+    private double getSlack(int i, double projectFinish) {
+        return projectFinish - tail[2 * i] - head[2 * i];
+    }
+
+
+    private boolean isCritical(int i, double projectFinish) {
+        return getSlack(i, projectFinish) <= CRITICAL_TOLERANCE * Math.max(1, Math.abs(projectFinish));
+    }
+
+
+    /**
+     * Returns the weight of the link from an event to another. Only the link from the start to
+     * the finish of a leaf takes time
+     */
+    private double weight(int from, int to) {
+        if((from & 1) == 0 && to == from + 1 && leaf[from >> 1]) {
+            return durations[from >> 1];
+        }
+        return 0;
+    }
+
+
+    private double computeHead(int event) {
+        double value = 0;
+        for(int j = inStart[event]; j < inStart[event + 1]; j++) {
+            value = Math.max(value, head[inSource[j]] + weight(inSource[j], event));
+        }
+        return value;
+    }
+
+
+    private double computeTail(int event) {
+        double value = 0;
+        for(int j = outStart[event]; j < outStart[event + 1]; j++) {
+            value = Math.max(value, weight(event, outTarget[j]) + tail[outTarget[j]]);
+        }
+        return value;
+    }
+
+
+    /**
+     * Recomputes the whole schedule if the structure changed since it was last computed
+     */
+    private void update() {
+        if(valid) {
+            return;
+        }
+
+        // index the nodes in pre-order so the root is node 0
+        ArrayList<WBSVisualTreeItem> treeNodes = document.getRoot().getTreeNodes();
+        int n = treeNodes.size();
+        nodes = treeNodes.toArray(new WBSVisualTreeItem[0]);
+        nodeIndexes = new HashMap<>(n * 2);
+        leaf = new boolean[n];
+        durations = new double[n];
+        for(int i = 0; i < n; i++) {
+            nodeIndexes.put(nodes[i].getUid(), i);
+            leaf[i] = nodes[i].isLeaf();
+            durations[i] = nodes[i].getDuration();
+        }
+
+        // count the links out of every event then fill them in
+        WBSDependencyGraph dependencies = document.getDependencies();
+        int events = 2 * n;
+        outStart = new int[events + 1];
+        inStart = new int[events + 1];
+        for(int i = 0; i < n; i++) {
+            countLink(2 * i, 2 * i + 1);  // start before finish
+            if(i > 0) {
+                int p = nodeIndexes.get(nodes[i].getParent().getUid());
+                countLink(2 * p, 2 * i);          // parent starts before child
+                countLink(2 * i + 1, 2 * p + 1);  // child finishes before parent
+            }
+            for(int predecessorUid : dependencies.getPredecessors(nodes[i].getUid())) {
+                countLink(2 * nodeIndexes.get(predecessorUid) + 1, 2 * i);  // predecessor finishes before node starts
+            }
+        }
+        for(int e = 0; e < events; e++) {  // turn counts into offsets
+            outStart[e + 1] += outStart[e];
+            inStart[e + 1] += inStart[e];
+        }
+        outTarget = new int[outStart[events]];
+        inSource = new int[inStart[events]];
+        int[] outFill = Arrays.copyOf(outStart, events);
+        int[] inFill = Arrays.copyOf(inStart, events);
+        for(int i = 0; i < n; i++) {
+            addLink(2 * i, 2 * i + 1, outFill, inFill);
+            if(i > 0) {
+                int p = nodeIndexes.get(nodes[i].getParent().getUid());
+                addLink(2 * p, 2 * i, outFill, inFill);
+                addLink(2 * i + 1, 2 * p + 1, outFill, inFill);
+            }
+            for(int predecessorUid : dependencies.getPredecessors(nodes[i].getUid())) {
+                addLink(2 * nodeIndexes.get(predecessorUid) + 1, 2 * i, outFill, inFill);
+            }
+        }
+
+        // order the events with Kahn's algorithm, events left over are in or after a cycle
+        int[] order = new int[events];
+        topologicalPosition = new int[events];
+        Arrays.fill(topologicalPosition, -1);
+        int[] remainingIn = new int[events];
+        int ordered = 0;
+        for(int e = 0; e < events; e++) {
+            remainingIn[e] = inStart[e + 1] - inStart[e];
+            if(remainingIn[e] == 0) {
+                order[ordered++] = e;
+            }
+        }
+        for(int k = 0; k < ordered; k++) {
+            int event = order[k];
+            topologicalPosition[event] = k;
+            for(int j = outStart[event]; j < outStart[event + 1]; j++) {
+                remainingIn[outTarget[j]] -= 1;
+                if(remainingIn[outTarget[j]] == 0) {
+                    order[ordered++] = outTarget[j];
+                }
+            }
+        }
+        hasCycle = ordered < events;
+        valid = true;
+        if(hasCycle) {
+            return;
+        }
+
+        queued = new boolean[events];
+        head = new double[events];
+        for(int k = 0; k < events; k++) {
+            head[order[k]] = computeHead(order[k]);
+        }
+        tail = new double[events];
+        for(int k = events - 1; k >= 0; k--) {
+            tail[order[k]] = computeTail(order[k]);
+        }
+    }
+
+
+    private void countLink(int from, int to) {
+        outStart[from + 1] += 1;
+        inStart[to + 1] += 1;
+    }
+
+
+    private void addLink(int from, int to, int[] outFill, int[] inFill) {
+        outTarget[outFill[from]++] = to;
+        inSource[inFill[to]++] = from;
+    }
+}
@@ -0,0 +1,161 @@
+package WBSData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * A consistent, unchangeable view of a whole wbs at one point in time. Taking a snapshot only
+ * copies the nodes that changed since the previous one, everything else is shared with it. A
+ * snapshot has to be taken on the thread that edits the tree, after that it can be read from any
+ * thread while the tree keeps changing
+ */
+public final class WBSSnapshot {
+    private final WBSNodeSnapshot root;
+    private final long modificationCount;
+
+    private WBSNodeSnapshot[] preOrder;  // index is the short name, built the first time it is needed
+    private int[] levels;
+    private HashMap<Integer, Integer> shortNames;  // uid, short name
+
+
+    /**
+     * Creates a snapshot of a document
+     *
+     * @param root              the copy of the root node
+     * @param modificationCount the modification count of the document when the copy was made
+     */
+    WBSSnapshot(WBSNodeSnapshot root, long modificationCount) {
+        this.root = root;
+        this.modificationCount = modificationCount;
+    }
+
+
+    /**
+     * Returns the copy of the root node
+     *
+     * @return the root of the snapshot
+     */
+    public WBSNodeSnapshot getRoot() {
+        return root;
+    }
+
+
+    /**
+     * Returns the modification count of the document when the snapshot was taken. If the
+     * document still has this count then nothing has changed since
+     *
+     * @return the modification count
+     */
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+
+    /**
+     * Returns the number of nodes in the snapshot
+     *
+     * @return the number of nodes
+     */
+    public int size() {
+        index();
+        return preOrder.length;
+    }
+
+
+    /**
+     * Returns the node with a short name. Short names are positions in pre-order so looping from 0
+     * to size visits the nodes in the order they are displayed
+     *
+     * @param shortName the short name of the node
+     * @return          the node or null if no node has that short name
+     */
+    public WBSNodeSnapshot getNodeByShortName(int shortName) {
+        index();
+        if(shortName < 0 || shortName >= preOrder.length) {
+            return null;
+        }
+        return preOrder[shortName];
+    }
+
+
+    /**
+     * Returns the depth of the node with a short name
+     *
+     * @param shortName the short name of the node
+     * @return          the level of the node, 0 for the root, or -1 if no node has that short name
+     */
+    public int getLevel(int shortName) {
+        index();
+        if(shortName < 0 || shortName >= levels.length) {
+            return -1;
+        }
+        return levels[shortName];
+    }
+
+
+    /**
+     * Returns the short name of the node with a uid
+     *
+     * @param uid the uid of the node
+     * @return    the short name or -1 if no node has that uid
+     */
+    public int getShortName(int uid) {
+        index();
+        Integer shortName = shortNames.get(uid);
+        return shortName == null ? -1 : shortName;
+    }
+
+
+    /**
+     * Returns the node with a uid
+     *
+     * @param uid the uid of the node
+     * @return    the node or null if no node has that uid
+     */
+    public WBSNodeSnapshot getNodeByUid(int uid) {
+        return getNodeByShortName(getShortName(uid));
+    }
+
+
+    /**
+     * Numbers the nodes the first time a short name, level, or uid lookup is needed. Done by the
+     * reader instead of when the snapshot is taken so taking one stays proportional to the changes
+     */
+    private synchronized void index() {
+        if(preOrder != null) {
+            return;
+        }
+
+        ArrayList<WBSNodeSnapshot> nodes = new ArrayList<>();
+        int[] nodeLevels = new int[16];
+        ArrayList<WBSNodeSnapshot> stack = new ArrayList<>();
+        int[] stackLevels = new int[16];
+        stack.add(root);
+        while(!stack.isEmpty()) {  // pre-order without recursion so deep trees don't overflow the stack
+            WBSNodeSnapshot node = stack.remove(stack.size() - 1);
+            int level = stackLevels[stack.size()];
+            if(nodes.size() == nodeLevels.length) {
+                nodeLevels = Arrays.copyOf(nodeLevels, nodeLevels.length * 2);
+            }
+            nodeLevels[nodes.size()] = level;
+            nodes.add(node);
+            for(int i = node.getChildCount() - 1; i >= 0; i--) {  // last child first so the first child is visited next
+                if(stack.size() == stackLevels.length) {
+                    stackLevels = Arrays.copyOf(stackLevels, stackLevels.length * 2);
+                }
+                stackLevels[stack.size()] = level + 1;
+                stack.add(node.getChild(i));
+            }
+        }
+
+        HashMap<Integer, Integer> newShortNames = new HashMap<>(nodes.size() * 2);
+        for(int i = 0; i < nodes.size(); i++) {
+            newShortNames.put(nodes.get(i).getUid(), i);
+        }
+        shortNames = newShortNames;
+        levels = Arrays.copyOf(nodeLevels, nodes.size());
+        preOrder = nodes.toArray(new WBSNodeSnapshot[0]);  // set last because it marks the index as built
+    }
+}
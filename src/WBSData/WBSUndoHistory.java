@@ -0,0 +1,359 @@
+package WBSData;
+
+import javafx.scene.paint.Color;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.function.BiConsumer;
+
+
+/**
+ * Undo and redo for the edits made to a document. Instead of copying the tree, each edit is stored
+ * as a small record that knows how to reverse it, so a step only takes memory for what it changed.
+ * Deleting a branch records where it was and keeps the detached branch itself, which is put back as
+ * is when the delete is undone. Edits made in one transaction are undone together, outside of a
+ * transaction each operation is its own step
+ */
+public class WBSUndoHistory {
+    private static final int MAX_STEPS = 200;
+
+    private final WBSDocument document;
+    private final ArrayDeque<ArrayList<Change>> undoSteps;
+    private final ArrayDeque<ArrayList<Change>> redoSteps;
+    private ArrayList<Change> openStep;  // changes made in the current transaction or group
+    private int groupDepth;
+    private boolean replaying;           // changes made while undoing or redoing are not recorded
+    private boolean canMerge;            // the last step is a single property edit that later edits can join
+
+
+    /**
+     * A single recorded edit that can be reversed and applied again
+     */
+    interface Change {
+        void undo();
+        void redo();
+    }
+
+
+    /**
+     * A property of a node that edits are recorded for. There is one constant per property so
+     * edits of the same property can be recognized and joined
+     */
+    static final class Property<V> {
+        static final Property<String> NAME = new Property<>(String.class, WBSVisualTreeItem::setNodeName);
+        static final Property<Double> DURATION = new Property<>(Double.class, WBSVisualTreeItem::setDuration);
+        static final Property<String> RESOURCE = new Property<>(String.class, WBSVisualTreeItem::setResource);
+        static final Property<String> NOTES1 = new Property<>(String.class, WBSVisualTreeItem::setNotes1);
+        static final Property<String> NOTES2 = new Property<>(String.class, WBSVisualTreeItem::setNotes2);
+        static final Property<Color> COLOR = new Property<>(Color.class, WBSVisualTreeItem::setNodeColor);
+
+        private final Class<V> type;
+        private final BiConsumer<WBSVisualTreeItem, V> setter;
+
+        private Property(Class<V> type, BiConsumer<WBSVisualTreeItem, V> setter) {
+            this.type = type;
+            this.setter = setter;
+        }
+    }
+
+
+    /**
+     * A property of a node being set to a new value
+     */
+    private static class PropertyChange<V> implements Change {
+        private final WBSVisualTreeItem node;
+        private final Property<V> property;
+        private final V oldValue;
+        private V newValue;
+
+        PropertyChange(WBSVisualTreeItem node, Property<V> property, V oldValue, V newValue) {
+            this.node = node;
+            this.property = property;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        public void undo() {
+            property.setter.accept(node, oldValue);
+        }
+
+        public void redo() {
+            property.setter.accept(node, newValue);
+        }
+
+        /**
+         * Takes the new value of a later edit of the same property of the same node
+         *
+         * @param next the later edit
+         * @return     true if the edits were joined, false if they change different things
+         */
+        boolean merge(PropertyChange<?> next) {
+            if(node != next.node || property != next.property) {
+                return false;
+            }
+            newValue = property.type.cast(next.newValue);
+            return true;
+        }
+    }
+
+
+    /**
+     * A node being moved to a new parent or to a new position among its siblings. A null parent
+     * means the node was not in the tree
+     */
+    private static class MoveChange implements Change {
+        private final WBSVisualTreeItem node;
+        private final WBSVisualTreeItem oldParent;
+        private final int oldIndex;
+        private final WBSVisualTreeItem newParent;
+        private final int newIndex;
+
+        MoveChange(WBSVisualTreeItem node, WBSVisualTreeItem oldParent, int oldIndex, WBSVisualTreeItem newParent, int newIndex) {
+            this.node = node;
+            this.oldParent = oldParent;
+            this.oldIndex = oldIndex;
+            this.newParent = newParent;
+            this.newIndex = newIndex;
+        }
+
+        public void undo() {
+            node.restorePosition(oldParent, oldIndex);
+        }
+
+        public void redo() {
+            node.restorePosition(newParent, newIndex);
+        }
+    }
+
+
+    /**
+     * A predecessor link being added or removed. Removed links remember their position among the
+     * predecessors so undoing puts them back in the same order
+     */
+    private static class DependencyChange implements Change {
+        private final WBSDependencyGraph graph;
+        private final int predecessorUid;
+        private final int successorUid;
+        private final boolean added;
+        private final int position;
+
+        DependencyChange(WBSDependencyGraph graph, int predecessorUid, int successorUid, boolean added, int position) {
+            this.graph = graph;
+            this.predecessorUid = predecessorUid;
+            this.successorUid = successorUid;
+            this.added = added;
+            this.position = position;
+        }
+
+        public void undo() {
+            apply(!added);
+        }
+
+        public void redo() {
+            apply(added);
+        }
+
+        private void apply(boolean add) {
+            if(add) {
+                graph.addDependency(predecessorUid, successorUid, position);
+            } else {
+                graph.removeDependency(predecessorUid, successorUid);
+            }
+        }
+    }
+
+
+    /**
+     * Creates an empty history for a document
+     *
+     * @param document the document whose edits are recorded
+     */
+    WBSUndoHistory(WBSDocument document) {
+        this.document = document;
+        undoSteps = new ArrayDeque<>();
+        redoSteps = new ArrayDeque<>();
+        openStep = new ArrayList<>();
+        groupDepth = 0;
+        replaying = false;
+        canMerge = false;
+    }
+
+
+    static <V> Change propertyChange(WBSVisualTreeItem node, Property<V> property, V oldValue, V newValue) {
+        return new PropertyChange<>(node, property, oldValue, newValue);
+    }
+
+
+    static Change moveChange(WBSVisualTreeItem node, WBSVisualTreeItem oldParent, int oldIndex, WBSVisualTreeItem newParent, int newIndex) {
+        return new MoveChange(node, oldParent, oldIndex, newParent, newIndex);
+    }
+
+
+    static Change dependencyChange(WBSDependencyGraph graph, int predecessorUid, int successorUid, boolean added, int position) {
+        return new DependencyChange(graph, predecessorUid, successorUid, added, position);
+    }
+
+
+    /**
+     * Records an edit. Consecutive edits of the same property of the same node made outside of a
+     * transaction are joined into one step so typing into a field is undone all at once
+     *
+     * @param change the edit that was made
+     */
+    void record(Change change) {
+        if(replaying) {
+            return;
+        }
+        redoSteps.clear();
+        if(document.isInTransaction() || groupDepth > 0) {
+            openStep.add(change);
+            canMerge = false;
+            return;
+        }
+
+        if(canMerge && change instanceof PropertyChange) {
+            PropertyChange<?> last = (PropertyChange<?>) undoSteps.peek().get(0);
+            if(last.merge((PropertyChange<?>) change)) {
+                return;
+            }
+        }
+        ArrayList<Change> step = new ArrayList<>(1);
+        step.add(change);
+        pushStep(step);
+        canMerge = change instanceof PropertyChange;
+    }
+
+
+    /**
+     * Starts grouping the changes of a single operation that records more than one change
+     */
+    void beginGroup() {
+        groupDepth += 1;
+    }
+
+
+    /**
+     * Ends a group started with beginGroup. The changes become one step unless a transaction is
+     * still collecting them
+     */
+    void endGroup() {
+        groupDepth -= 1;
+        if(groupDepth == 0 && !document.isInTransaction()) {
+            endStep();
+        }
+    }
+
+
+    /**
+     * Called when the outermost transaction commits to turn its changes into one step
+     */
+    void endStep() {
+        if(groupDepth == 0 && !openStep.isEmpty()) {
+            openStep.trimToSize();
+            pushStep(openStep);
+            openStep = new ArrayList<>();
+        }
+    }
+
+
+    private void pushStep(ArrayList<Change> step) {
+        undoSteps.push(step);
+        if(undoSteps.size() > MAX_STEPS) {  // oldest steps are forgotten so detached branches they hold can be freed
+            undoSteps.removeLast();
+        }
+    }
+
+
+    /**
+     * Returns whether or not there is a step that can be undone
+     *
+     * @return true if undo will do something
+     */
+    public boolean canUndo() {
+        return !undoSteps.isEmpty() && !document.isInTransaction();
+    }
+
+
+    /**
+     * Returns whether or not there is an undone step that can be done again
+     *
+     * @return true if redo will do something
+     */
+    public boolean canRedo() {
+        return !redoSteps.isEmpty() && !document.isInTransaction();
+    }
+
+
+    /**
+     * Reverses the last step
+     *
+     * @return true if a step was undone, false if there was nothing to undo or a transaction is open
+     */
+    public boolean undo() {
+        if(!canUndo()) {
+            return false;
+        }
+        ArrayList<Change> step = undoSteps.pop();
+        replay(() -> {
+            for(int i = step.size() - 1; i >= 0; i--) {  // later changes depend on earlier ones so reverse them first
+                step.get(i).undo();
+            }
+        });
+        redoSteps.push(step);
+        return true;
+    }
+
+
+    /**
+     * Applies the last undone step again
+     *
+     * @return true if a step was redone, false if there was nothing to redo or a transaction is open
+     */
+    public boolean redo() {
+        if(!canRedo()) {
+            return false;
+        }
+        ArrayList<Change> step = redoSteps.pop();
+        replay(() -> {
+            for(Change change : step) {
+                change.redo();
+            }
+        });
+        undoSteps.push(step);
+        return true;
+    }
+
+
+    /**
+     * Returns whether or not a step is being undone or redone
+     *
+     * @return true while recorded changes are being applied
+     */
+    boolean isReplaying() {
+        return replaying;
+    }
+
+
+    /**
+     * Forgets every step
+     */
+    public void clear() {
+        undoSteps.clear();
+        redoSteps.clear();
+        openStep.clear();
+        canMerge = false;
+    }
+
+
+    private void replay(Runnable changes) {
+        replaying = true;
+        canMerge = false;
+        document.beginTransaction();  // derived values are brought up to date once for the whole step
+        try {
+            changes.run();
+        } finally {
+            document.commitTransaction();
+            replaying = false;
+        }
+    }
+}
@@ -11,45 +11,53 @@ import javafx.scene.layout.BackgroundFill;
 import javafx.scene.layout.CornerRadii;
 import javafx.scene.paint.Color;
 
-import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 
 public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
-    private final ArrayList<WBSVisualTreeItem> children;
+    private final WBSChildList children;
     private WBSVisualTreeItem parent;
+    private WBSDocument document;  // shared by every node in the tree, null for a lone node until it is needed
+    private int level;  // depth of the node, kept up to date when the node is moved
     private int shortName;
-    private final int uid;
+    int childIndex;  // index in the parent's children, kept by WBSChildList
+    private int uid;
 
     private String nodeName;
     private double duration;
     private String resource;
-    private final ArrayList<Integer> predecessors;  // list of uids of predecessors
+    private ArrayList<WBSResource> parsedResources;  // cached parse of resource, null if not parsed yet or invalid
+    private boolean resourcesParsed;
     private String notes1;
     private String notes2;
 
+    private double personDuration;  // cached sum of duration * resource multiplier over the branch
+    private boolean aggregatesValid;  // if false then every ancestor is also invalid
+    private WBSNodeSnapshot snapshot;  // copy from the last snapshot, if null then every ancestor is also null
+
     private boolean isVisible;
     private Color nodeColor;
-    private boolean wasModified;
 
     public WBSVisualTreeItem(String nodeName) {
-        children = new ArrayList<>();
-        this.uid = nodeName.hashCode() + Instant.now().toString().hashCode();
-        try {  // wait a millisecond to ensure that the next uid will for sure be unique even with the same name
-            Thread.sleep(1);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        this(nodeName, WBSDocument.allocateLooseUid());
+    }
 
+    private WBSVisualTreeItem(String nodeName, int uid) {
+        children = new WBSChildList();
+        this.uid = uid;
         this.nodeName = nodeName;
         duration = 0.0;
         resource = "";
-        predecessors = new ArrayList<>();
         notes1 = "";
         notes2 = "";
         nodeColor = Color.web("#FFFFFF");
@@ -59,34 +67,26 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
     }
 
     public WBSVisualTreeItem(String nodeName, Integer uid, String hexColor) {
-        children = new ArrayList<>();
+        children = new WBSChildList();
         this.uid = uid;
         this.nodeName = nodeName;
 
         duration = 0.0;
         resource = "";
-        predecessors = new ArrayList<>();
         notes1 = "";
         notes2 = "";
         nodeColor = Color.web(hexColor);
 
         isVisible = true;
-        wasModified = false;
     }
 
     public WBSVisualTreeItem(WBSVisualTreeItem copy) {
-        children = new ArrayList<>();
+        children = new WBSChildList();
         nodeName = copy.getNodeName();
-        uid = nodeName.hashCode() + Instant.now().toString().hashCode();  // create new uid
-        try {  // wait a millisecond to ensure that the next uid will for sure be unique even with the same name
-            Thread.sleep(1);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        uid = copy.getDocument().allocateUid();  // create new uid
 
         duration = copy.getDuration();
-        resource = copy.getResource();
-        predecessors = new ArrayList<>();  // does not copy predecessors
+        resource = copy.getResource();  // does not copy predecessors
         notes1 = copy.getNotes1();
         notes2 = copy.getNotes2();
         nodeColor = Color.web("#FFFFFF");  // does not copy group color
@@ -97,7 +97,7 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
 
     @Override
     public WBSVisualTreeItem getNewNode() {
-        return new WBSVisualTreeItem("New Node");
+        return new WBSVisualTreeItem("New Node", getDocument().allocateUid());
     }
 
     private static ArrayList<Integer> parsePredecessors(String s) {
@@ -120,92 +120,242 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
         return integers;
     }
 
-    private static double parseResourceMultiplier(String s) {
-        if(s.isEmpty()) {  // return right away for empty string
-            return 0;
-        }
-
-        double multiplier = 0;
-        ArrayList<String> resources = new ArrayList<>(Arrays.asList(s.split(",")));  // split by comma
-        for(String resource : resources) {
-            Pattern multiplierPattern = Pattern.compile(".*?\\[(.*?)]");
-            Matcher m = multiplierPattern.matcher(resource);
-
-            boolean firstCharIsBracket = String.valueOf(resource.charAt(0)).equals("[");
-            if(m.find() && !firstCharIsBracket) {  // check for regex
-                String percentage = m.group(1);
-                if(percentage.contains("%") && percentage.length() > 1) {  // force string to contain percentage and not only percentage
-                    try {
-                        multiplier += Double.parseDouble(percentage.split("%")[0]) / 100;
-                    } catch(NumberFormatException nft) {
-                        return -1;  // -1 means a parsing error
-                    }
-                } else {
-                    return -1;  // -1 means a parsing error
-                }
-            } else if(firstCharIsBracket) {  // can't be an empty resource -- return parsing error
-                return -1;
-            } else {
-                multiplier += 1;
-            }
-        }
-
-        return multiplier;
-    }
-
     @Override
     public void addChild(WBSVisualTreeItem node) {
-        children.add(node);
-        node.setParent(this);
+        if(node.getParent() == this) {  // adding an existing child moves it to the end
+            node.moveToIndex(children.size() - 1);
+        } else {
+            node.setParent(this);
+        }
         setWasModified(true);
     }
 
     @Override
     public void addChildren(Collection<WBSVisualTreeItem> nodes) {
-        children.addAll(nodes);
-        for(WBSVisualTreeItem node : nodes) {
-            node.setParent(this);
-        }
+        ArrayList<WBSVisualTreeItem> nodesToAdd = new ArrayList<>(nodes);  // copy in case nodes is a list of children being moved
+        getDocument().groupChanges(() -> {
+            for(WBSVisualTreeItem node : nodesToAdd) {
+                addChild(node);
+            }
+        });
         setWasModified(true);
     }
 
     @Override
     public void deleteChild(WBSVisualTreeItem node) {
-        children.remove(node);
-        node.setParent(null);
+        if(node.getParent() == this) {
+            node.setParent(null);
+        }
         setWasModified(true);
     }
 
     @Override
     public void deleteChildren(Collection<WBSVisualTreeItem> nodes) {
-        children.removeAll(nodes);
-        for(WBSVisualTreeItem node : nodes) {
-            node.setParent(null);
-        }
+        ArrayList<WBSVisualTreeItem> nodesToDelete = new ArrayList<>(nodes);  // copy because nodes is often this node's children list
+        getDocument().groupChanges(() -> {
+            for(WBSVisualTreeItem node : nodesToDelete) {
+                deleteChild(node);
+            }
+        });
         setWasModified(true);
     }
 
     @Override
     public void setParent(WBSVisualTreeItem node) {
+        WBSDocument changedDocument = node != null ? node.getDocument() : document;  // the tree the move is recorded in
+        if(changedDocument == null) {
+            moveUnder(node);
+        } else {
+            changedDocument.groupChanges(() -> moveUnder(node));  // links cut by the move are undone with it
+        }
+    }
+
+    private void moveUnder(WBSVisualTreeItem node) {
+        WBSVisualTreeItem oldParent = parent;
+        int oldIndex = parent == null ? -1 : parent.children.indexOf(this);
         if(parent != null) {
+            document.invalidateShortNamesFrom(this);  // everything from here on in pre-order moves up
+            if(parent.children.size() == 1 && document.isInTransaction()) {
+                document.flushDurations();  // the parent keeps its duration as a leaf so it has to be current
+            }
             parent.getChildren().remove(this);  // remove child from previous parent if not null
+            parent.invalidateAggregates();
+            parent.invalidateSnapshot();
+            if(!parent.isLeaf()) {  // a parent left without children keeps its duration as a leaf
+                parent.changeDuration(-duration);
+            }
         }
         if(node != null && !node.getChildren().contains(this)) {
+            WBSVisualTreeItem lastDescendant = node;  // the node will come right after this in pre-order
+            while(!lastDescendant.isLeaf()) {
+                lastDescendant = lastDescendant.children.get(lastDescendant.children.size() - 1);
+            }
+            node.getDocument().invalidateShortNamesAfter(lastDescendant);
             node.getChildren().add(this);  // add child to new parent if it is not already there and not null
         }
         parent = node;  // update parent node
+        if(node != null) {
+            node.invalidateAggregates();
+            node.invalidateSnapshot();
+            if(node.getChildren().size() == 1) {  // parent was a leaf so its duration now comes from this node only
+                node.recordChange(WBSUndoHistory.Property.DURATION, node.duration, duration);  // so undo gives the leaf its duration back
+                node.changeDuration(duration - node.duration);
+            } else {
+                node.changeDuration(duration);
+            }
+        }
+
+        int newLevel = node == null ? 0 : node.level + 1;
+        if(newLevel != level) {  // only the moved branch changes depth
+            int levelChange = newLevel - level;
+            visitBranch(descendant -> descendant.level += levelChange);
+        }
+
+        if(node != null) {
+            WBSDocument newDocument = node.getDocument();
+            if(newDocument != document) {  // moved into a different tree so the nodes need to be re-indexed
+                moveToDocument(newDocument);
+            }
+        } else if(document != null && document.getRoot() != this) {  // detached from a tree so this is the new root
+            moveToDocument(children.isEmpty() ? null : new WBSDocument(this));
+        }
+        if(oldParent != null && oldParent.document != document) {  // the tree the node left changed too
+            oldParent.setWasModified(true);
+        }
+        if(document != null) {
+            document.nodeChanged(this);  // the node has a new place in the tree
+            document.structureChanged();
+        }
+
+        // recorded after the move so that undoing puts the node back before its links are restored
+        WBSVisualTreeItem changedTree = node != null ? node : oldParent;
+        if(changedTree != null) {
+            int newIndex = node == null ? -1 : node.children.indexOf(this);
+            changedTree.document.recordChange(WBSUndoHistory.moveChange(this, oldParent, oldIndex, node, newIndex));
+        }
         setWasModified(true);
     }
 
-    @Override
-    public int getLevel() {
-        int level = 0;
-        WBSVisualTreeItem currentNode = this;
-        while(currentNode.getParent() != null) {
-            currentNode = currentNode.getParent();
-            level += 1;
+    /**
+     * Puts the node back under a parent at an index. Used to undo and redo moves
+     */
+    void restorePosition(WBSVisualTreeItem newParent, int index) {
+        if(parent != newParent) {
+            setParent(newParent);
+        }
+        if(newParent != null && index >= 0) {
+            moveToIndex(Math.min(index, newParent.children.size() - 1));
+        }
+    }
+
+    private void moveToDocument(WBSDocument newDocument) {
+        boolean oldDocumentDiscarded = document == null || document.getRoot() == this;
+        ArrayList<WBSVisualTreeItem> branch = new ArrayList<>();
+        visitBranch(branch::add);
+
+        // links inside the branch move with it, links that cross out of the branch are cut. When a
+        // move is undone or redone the recorded link changes restore every link in its old position
+        ArrayList<WBSVisualTreeItem> linkedNodes = new ArrayList<>();  // pairs of predecessor, successor
+        boolean replaying = (document != null && document.isReplaying()) || (newDocument != null && newDocument.isReplaying());
+        if(document != null && newDocument != null && document.getDependencies().size() > 0 && !replaying) {
+            Set<WBSVisualTreeItem> inBranch = Collections.newSetFromMap(new IdentityHashMap<>());
+            inBranch.addAll(branch);
+            for(WBSVisualTreeItem node : branch) {
+                for(int predecessorUid : document.getDependencies().getPredecessors(node.uid)) {
+                    WBSVisualTreeItem predecessor = document.getNode(predecessorUid);
+                    if(inBranch.contains(predecessor)) {
+                        linkedNodes.add(predecessor);
+                        linkedNodes.add(node);
+                    }
+                }
+            }
+        }
+
+        for(WBSVisualTreeItem node : branch) {
+            if(!oldDocumentDiscarded) {
+                node.document.unregister(node);
+            }
+            node.document = newDocument;
+            if(newDocument != null) {
+                if(newDocument.containsUid(node.uid)) {  // uid came from a different document so it has to be replaced
+                    node.uid = newDocument.allocateUid();
+                    node.invalidateSnapshot();
+                }
+                newDocument.register(node);
+            }
+        }
+
+        for(int i = 0; i < linkedNodes.size(); i += 2) {  // uses the new uids so reassigned uids are handled
+            newDocument.getDependencies().addDependency(linkedNodes.get(i).uid, linkedNodes.get(i + 1).uid);
+        }
+    }
+
+    /**
+     * Copies the branch starting at this node for a snapshot. Nodes that have not changed since the
+     * last snapshot return their previous copy, so only changed nodes and their ancestors are copied
+     */
+    WBSNodeSnapshot getSnapshot() {
+        if(snapshot != null) {
+            return snapshot;
+        }
+
+        ArrayDeque<WBSVisualTreeItem> stack = new ArrayDeque<>();  // children are copied before their parent
+        stack.push(this);
+        while(!stack.isEmpty()) {
+            WBSVisualTreeItem node = stack.peek();
+            boolean childrenCopied = true;
+            for(WBSVisualTreeItem child : node.children) {
+                if(child.snapshot == null) {
+                    stack.push(child);
+                    childrenCopied = false;
+                }
+            }
+            if(childrenCopied) {
+                stack.pop();
+                WBSNodeSnapshot[] childSnapshots = new WBSNodeSnapshot[node.children.size()];
+                for(int i = 0; i < childSnapshots.length; i++) {
+                    childSnapshots[i] = node.children.get(i).snapshot;
+                }
+                int[] predecessors = node.document == null ? new int[0] : node.document.getDependencies().getPredecessors(node.uid);
+                node.snapshot = new WBSNodeSnapshot(node, predecessors, childSnapshots);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Called when anything stored in a snapshot of this node changes. Also records the node as
+     * changed since the last save
+     */
+    void invalidateSnapshot() {
+        if(document != null) {
+            document.nodeChanged(this);
+        }
+        WBSVisualTreeItem node = this;
+        while(node != null && node.snapshot != null) {  // ancestors of a changed node are already invalid
+            node.snapshot = null;
+            node = node.parent;
+        }
+    }
+
+    private void invalidateAggregates() {
+        WBSVisualTreeItem node = this;
+        while(node != null && node.aggregatesValid) {  // ancestors of an invalid node are already invalid
+            node.aggregatesValid = false;
+            node = node.parent;
+        }
+    }
+
+    public WBSDocument getDocument() {
+        if(document == null) {  // lone nodes only create a document once something asks for it
+            document = new WBSDocument(this);
+            document.register(this);
         }
+        return document;
+    }
 
+    @Override
+    public int getLevel() {
         return level;
     }
 
@@ -221,17 +371,17 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
 
     @Override
     public WBSVisualTreeItem getRootNode() {
-        WBSVisualTreeItem currentNode = this;
-        while(currentNode.getParent() != null) {
-            currentNode = currentNode.getParent();
+        if(document == null) {  // only lone nodes do not have a document
+            return this;
         }
-
-        return currentNode;
+        return document.getRoot();
     }
 
     @Override
     public ArrayList<WBSVisualTreeItem> getTreeNodes() {
-        return getBranchNodes(new ArrayList<>(), getRootNode());
+        WBSVisualTreeItem root = getRootNode();
+        int size = root.document != null ? root.document.size() : 1;
+        return getBranchNodes(new ArrayList<>(size), root);
     }
 
     @Override
@@ -242,18 +392,32 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
 
     @Override
     public ArrayList<WBSVisualTreeItem> getBranchNodes(ArrayList<WBSVisualTreeItem> nodes, WBSVisualTreeItem node) {
-        synchronized(nodes) {
-            nodes.add(node);
-            if (!node.getChildren().isEmpty()) {  // parse children nodes
-                for (WBSVisualTreeItem child : node.getChildren()) {
-                    getBranchNodes(nodes, child);
-                }
-            } else if (nodes.size() > 1) {  // ensure at least one recursive call before returning null
-                return null;  // no return value needed
-            }
+        node.visitBranch(nodes::add);
+        return nodes;
+    }
+
+    @Override
+    public BranchIterator<WBSVisualTreeItem> branchIterator() {
+        return new BranchIterator<>(this);
+    }
+
+    @Override
+    public void visitBranch(Consumer<WBSVisualTreeItem> visitor) {
+        BranchIterator<WBSVisualTreeItem> nodes = branchIterator();
+        while(nodes.hasNext()) {
+            visitor.accept(nodes.next());
         }
+    }
 
-        return nodes;
+    @Override
+    public void runTransaction(Runnable edits) {
+        WBSDocument transactionDocument = getDocument();  // the edits could move this node to another document
+        transactionDocument.beginTransaction();
+        try {
+            edits.run();
+        } finally {
+            transactionDocument.commitTransaction();
+        }
     }
 
     @Override
@@ -347,35 +511,23 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
             resourceEntry.setTooltip(new Tooltip(resource));
             resourceEntry.setPrefColumnCount(25);
             resourceEntry.textProperty().addListener((observable, oldValue, newValue) -> {
-                if(parseResourceMultiplier(newValue) == -1) {
+                ArrayList<WBSResource> resources = WBSResource.parseResources(newValue);
+                if(resources == null) {
                     resourceEntry.setBackground(new Background(new BackgroundFill(Color.color(0.9, 0.2, 0.1), new CornerRadii(3), new Insets(0))));
                 } else {
                     resourceEntry.setBackground(new Background(new BackgroundFill(Color.color(1, 1, 1), new CornerRadii(3), new Insets(0))));
-                    setResource(newValue);
+                    setResource(newValue, resources);
                 }
                 resourceEntry.setTooltip(new Tooltip(newValue));
                 setWasModified(true);
             });
 
             String startText = "";
-            ArrayList<Integer> predecessorsToRemove = new ArrayList<>();
-            for (int uid : predecessors) {
-                // TODO: pruning broken predecessors should probably happen in a delete function somewhere not the render function
-                boolean uidExists = false;     // check for broken predecessors
-                for(WBSVisualTreeItem node : getTreeNodes()) {
-                    if(node.getUid() == uid) {
-                        uidExists = true;
-                        break;
-                    }
-                }
-                if(uidExists) {
-                    startText += getNodeByUid(uid).getShortName() + ", ";
-                } else {  // add to list to prune it from predecessors
-                    predecessorsToRemove.add(uid);
-                }
+            int[] predecessorUids = getDocument().getDependencies().getPredecessors(uid);  // links are removed when nodes are deleted so none are broken
+            for (int predecessorUid : predecessorUids) {
+                startText += getNodeByUid(predecessorUid).getShortName() + ", ";
             }
-            predecessors.removeAll(predecessorsToRemove);
-            if(predecessors.size() > 0) {  // remove last two characters of string because they will just be a string and a comma
+            if(predecessorUids.length > 0) {  // remove last two characters of string because they will just be a string and a comma
                 startText = startText.substring(0, startText.length() - 2);
             }
 
@@ -387,15 +539,17 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
                     predecessorsEntry.setBackground(new Background(new BackgroundFill(Color.color(0.9, 0.2, 0.1), new CornerRadii(3), new Insets(0))));
                 } else {
                     predecessorsEntry.setBackground(new Background(new BackgroundFill(Color.color(1, 1, 1), new CornerRadii(3), new Insets(0))));
-                    predecessors.clear();
-                    for (int sName : shortNames) {
-                        WBSVisualTreeItem predecessor = getNodeByShortName(sName);
-                        if(predecessor == null) {
-                            predecessorsEntry.setBackground(new Background(new BackgroundFill(Color.color(0.9, 0.2, 0.1), new CornerRadii(3), new Insets(0))));
-                        } else {
-                            addPredecessor(predecessor.getUid());
+                    runTransaction(() -> {  // replacing the links is undone as one edit
+                        clearPredecessors();
+                        for (int sName : shortNames) {
+                            WBSVisualTreeItem predecessor = getNodeByShortName(sName);
+                            if(predecessor == null) {
+                                predecessorsEntry.setBackground(new Background(new BackgroundFill(Color.color(0.9, 0.2, 0.1), new CornerRadii(3), new Insets(0))));
+                            } else {
+                                addPredecessor(predecessor.getUid());
+                            }
                         }
-                    }
+                    });
                 }
                 predecessorsEntry.setTooltip(new Tooltip(predecessorsEntry.getText()));
                 setWasModified(true);
@@ -443,7 +597,10 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
     
     @Override
     public void setNodeColor(Color color) {
+        recordChange(WBSUndoHistory.Property.COLOR, nodeColor, color);
         nodeColor = color;
+        invalidateSnapshot();
+        setWasModified(true);
     }
     
     public void setSiblingGroupColor(Color color) {
@@ -452,9 +609,14 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
         }
 
         ArrayList<WBSVisualTreeItem> siblings = getParent().getChildren();
-        for(WBSVisualTreeItem sibling : siblings) {
-            sibling.nodeColor = color;
-        }
+        getDocument().groupChanges(() -> {
+            for(WBSVisualTreeItem sibling : siblings) {
+                sibling.recordChange(WBSUndoHistory.Property.COLOR, sibling.nodeColor, color);
+                sibling.nodeColor = color;
+                sibling.invalidateSnapshot();
+            }
+        });
+        setWasModified(true);
     }
 
     @Override
@@ -463,14 +625,13 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
     }
 
     public void updateShortNames() {
-        ArrayList<WBSVisualTreeItem> nodes = getTreeNodes();
-        for(int i=0; i<nodes.size(); i++) {
-            nodes.get(i).setShortName(i);
-        }
+        getDocument().updateShortNames();
     }
 
     public WBSVisualTreeItem getNodeByName(String name) {
-        for(WBSVisualTreeItem node : getTreeNodes()) {
+        BranchIterator<WBSVisualTreeItem> nodes = getRootNode().branchIterator();
+        while(nodes.hasNext()) {
+            WBSVisualTreeItem node = nodes.next();
             if(node.getNodeName().equals(name)) {
                 return node;
             }
@@ -479,21 +640,11 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
     }
 
     public WBSVisualTreeItem getNodeByShortName(int sName) {
-        for(WBSVisualTreeItem node : getTreeNodes()) {
-            if(node.getShortName() == sName) {
-                return node;
-            }
-        }
-        return null;
+        return getDocument().getNodeByShortName(sName);
     }
 
     public WBSVisualTreeItem getNodeByUid(int uid) {
-        for(WBSVisualTreeItem node : getTreeNodes()) {
-            if(node.getUid() == uid) {
-                return node;
-            }
-        }
-        return null;
+        return getDocument().getNode(uid);
     }
 
     @Override
@@ -502,15 +653,10 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
             return;
         }
         WBSVisualTreeItem parent = getParent();
-        setParent(getParent().getParent());
-        int parentIndex = parent.getParent().getChildren().indexOf(parent);
-        while(getParent().getChildren().indexOf(this) != parentIndex + 1) {
-            if(getParent().getChildren().indexOf(this) > parentIndex + 1) {
-                shiftNodeBackward();
-            } else {
-                shiftNodeForward();
-            }
-        }
+        getDocument().groupChanges(() -> {
+            setParent(parent.getParent());
+            moveToIndex(parent.getParent().getChildren().indexOf(parent) + 1);  // right after the old parent
+        });
     }
 
     @Override
@@ -520,49 +666,58 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
             return;
         }
         WBSVisualTreeItem newParent = getParent().getChildren().get(getParent().getChildren().indexOf(this) + 1);
-        setParent(newParent);
-        bringNodeToBack();
+        getDocument().groupChanges(() -> {
+            setParent(newParent);
+            bringNodeToBack();
+        });
     }
 
     @Override
     public void shiftNodeForward() {
-        ArrayList<WBSVisualTreeItem> siblings = getParent().getChildren();
-        int nodeIndex = siblings.indexOf(this);
-        if(nodeIndex < siblings.size() - 1) {
-            Collections.swap(siblings, nodeIndex, nodeIndex + 1);
+        int nodeIndex = parent.children.indexOf(this);
+        if(nodeIndex < parent.children.size() - 1) {
+            moveToIndex(nodeIndex + 1);
         }
         setWasModified(true);
     }
 
     @Override
     public void shiftNodeBackward() {
-        ArrayList<WBSVisualTreeItem> siblings = getParent().getChildren();
-        int nodeIndex = siblings.indexOf(this);
+        int nodeIndex = parent.children.indexOf(this);
         if(nodeIndex > 0) {
-            Collections.swap(siblings, nodeIndex, nodeIndex - 1);
+            moveToIndex(nodeIndex - 1);
         }
         setWasModified(true);
     }
 
     @Override
     public void bringNodeToFront() {
-        ArrayList<WBSVisualTreeItem> siblings = getParent().getChildren();
-        int nodeIndex = siblings.indexOf(this);
-        while(nodeIndex < siblings.size() - 1) {
-            Collections.swap(siblings, nodeIndex, nodeIndex + 1);
-            nodeIndex = siblings.indexOf(this);
-        }
+        moveToIndex(parent.children.size() - 1);
         setWasModified(true);
     }
 
     @Override
     public void bringNodeToBack() {
-        ArrayList<WBSVisualTreeItem> siblings = getParent().getChildren();
+        moveToIndex(0);
+        setWasModified(true);
+    }
+
+    /**
+     * Moves the node to a position among its siblings
+     *
+     * @param index the index the node will have in the children of its parent
+     */
+    public void moveToIndex(int index) {
+        WBSChildList siblings = parent.children;
         int nodeIndex = siblings.indexOf(this);
-        while(nodeIndex > 0) {
-            Collections.swap(siblings, nodeIndex, nodeIndex - 1);
-            nodeIndex = siblings.indexOf(this);
+        if(nodeIndex == index) {
+            return;
         }
+        getDocument().invalidateShortNamesFrom(siblings.get(Math.min(nodeIndex, index)));  // first sibling that moves
+        siblings.move(nodeIndex, index);
+        parent.invalidateSnapshot();
+        document.nodeChanged(this);
+        document.recordChange(WBSUndoHistory.moveChange(this, parent, nodeIndex, parent, index));
         setWasModified(true);
     }
 
@@ -589,6 +744,13 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
 
 
     public int getShortName() {
+        if(document != null) {  // renumber if the tree changed since the last update
+            document.updateShortNames();
+        }
+        return shortName;
+    }
+
+    int getStoredShortName() {
         return shortName;
     }
 
@@ -605,7 +767,9 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
     }
 
     public void setNodeName(String nodeName) {
+        recordChange(WBSUndoHistory.Property.NAME, this.nodeName, nodeName);
         this.nodeName = nodeName;
+        invalidateSnapshot();
         setWasModified(true);
     }
 
@@ -614,30 +778,107 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
     }
 
     public void setDuration(double duration) {
+        recordChange(WBSUndoHistory.Property.DURATION, this.duration, duration);
+        double change = duration - this.duration;
         this.duration = duration;
-        WBSVisualTreeItem parent = getParent();
+        invalidateAggregates();
+        invalidateSnapshot();
         if(parent != null) {
-            double newParentDuration = 0;
-            for(WBSVisualTreeItem child : parent.getChildren()) {
-                newParentDuration += child.getDuration();
-            }
-            parent.setDuration(newParentDuration);  // recursively propagate to root updating duration
+            parent.changeDuration(change);  // propagate the difference to root updating duration
+        }
+        if(document != null) {
+            document.durationChanged(this);
         }
         setWasModified(true);
     }
 
-    public double getPersonDuration() {
-        double personDuration = 0;
-        ArrayList<WBSVisualTreeItem> nodes = getBranchNodes(new ArrayList<>(), this);
+    private void changeDuration(double change) {
+        if(change == 0) {
+            return;
+        }
+        if(getDocument().isInTransaction()) {  // summed once when the transaction commits
+            getDocument().deferDurationRollup(this);
+            return;
+        }
+
+        if(getDocument().countDurationUpdate()) {  // periodically sum the children exactly so floating point error can't build up
+            for(WBSVisualTreeItem node = this; node != null; node = node.parent) {
+                node.recomputeDuration();
+            }
+        } else {
+            for(WBSVisualTreeItem node = this; node != null; node = node.parent) {
+                node.duration += change;
+            }
+        }
+    }
+
+    private void recomputeDuration() {
+        double newDuration = 0;
+        for(WBSVisualTreeItem child : children) {
+            newDuration += child.duration;
+        }
+        duration = newDuration;
+    }
+
+    public static void setDurations(Map<WBSVisualTreeItem, Double> durations) {
+        Runnable edits = () -> {
+            for(Map.Entry<WBSVisualTreeItem, Double> entry : durations.entrySet()) {
+                WBSVisualTreeItem node = entry.getKey();
+                node.recordChange(WBSUndoHistory.Property.DURATION, node.duration, entry.getValue());
+                node.duration = entry.getValue();
+                node.invalidateAggregates();
+                node.invalidateSnapshot();
+                if(node.document != null) {
+                    node.document.durationChanged(node);
+                }
+                node.setWasModified(true);
+            }
+        };
+        WBSDocument document = durations.isEmpty() ? null : durations.keySet().iterator().next().document;
+        if(document == null) {
+            edits.run();
+        } else {
+            document.groupChanges(edits);  // the batch is undone as one edit
+        }
+        recomputeDurations(durations.keySet());
+    }
+
+    static void recomputeDurations(Collection<WBSVisualTreeItem> nodes) {
+        HashSet<WBSVisualTreeItem> nodesToRecompute = new HashSet<>();
         for(WBSVisualTreeItem node : nodes) {
-            double multiplier = parseResourceMultiplier(node.getResource());
-            if(multiplier == -1) {
-                return -1;  // propagate error through func call
+            // a parent's duration always comes from its children. Stop once the rest of the path is queued
+            WBSVisualTreeItem ancestor = node.isLeaf() ? node.parent : node;
+            while(ancestor != null && nodesToRecompute.add(ancestor)) {
+                ancestor = ancestor.parent;
+            }
+        }
+
+        ArrayList<WBSVisualTreeItem> sortedNodes = new ArrayList<>(nodesToRecompute);
+        sortedNodes.sort(Comparator.comparingInt(WBSVisualTreeItem::getLevel).reversed());  // children before parents
+        for(WBSVisualTreeItem node : sortedNodes) {
+            node.recomputeDuration();
+            node.invalidateAggregates();  // person durations cached since the duration was deferred are stale
+        }
+    }
+
+    public double getPersonDuration() {
+        if(aggregatesValid) {
+            return personDuration;
+        }
+
+        double multiplier = getResourceMultiplier();
+        double newPersonDuration = multiplier == -1 ? -1 : duration * multiplier;
+        for(WBSVisualTreeItem child : children) {  // always visit every child so their values are cached too
+            double childPersonDuration = child.getPersonDuration();
+            if(childPersonDuration == -1 || newPersonDuration == -1) {
+                newPersonDuration = -1;  // propagate error through func call
+            } else {
+                newPersonDuration += childPersonDuration;
             }
-            personDuration += node.getDuration() * multiplier;
-//            System.out.println(getNodeName() + " " + personDuration + " " + multiplier);
         }
 
+        personDuration = newPersonDuration;
+        aggregatesValid = true;
         return personDuration;
     }
 
@@ -646,16 +887,71 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
     }
 
     public void setResource(String resource) {
+        recordChange(WBSUndoHistory.Property.RESOURCE, this.resource, resource);
         this.resource = resource;
+        parsedResources = null;  // parsed again the next time it is needed
+        resourcesParsed = false;
+        invalidateAggregates();
+        invalidateSnapshot();
         setWasModified(true);
     }
 
+    private void setResource(String resource, ArrayList<WBSResource> resources) {
+        setResource(resource);
+        parsedResources = resources;  // already parsed by the caller
+        resourcesParsed = true;
+    }
+
+    public ArrayList<WBSResource> getResources() {
+        if(!resourcesParsed) {
+            parsedResources = WBSResource.parseResources(resource);
+            resourcesParsed = true;
+        }
+        return parsedResources;
+    }
+
+    public double getResourceMultiplier() {
+        return WBSResource.getMultiplier(getResources());
+    }
+
     public ArrayList<Integer> getPredecessors() {
+        ArrayList<Integer> predecessors = new ArrayList<>();
+        for(int predecessorUid : getDocument().getDependencies().getPredecessors(uid)) {
+            predecessors.add(predecessorUid);
+        }
         return predecessors;
     }
 
-    public void addPredecessor(int uid) {
-        predecessors.add(uid);
+    public ArrayList<Integer> getSuccessors() {
+        ArrayList<Integer> successors = new ArrayList<>();
+        for(int successorUid : getDocument().getDependencies().getSuccessors(uid)) {
+            successors.add(successorUid);
+        }
+        return successors;
+    }
+
+    public boolean addPredecessor(int uid) {
+        if(!getDocument().getDependencies().addDependency(uid, this.uid)) {  // uid is not in this tree or is already a predecessor
+            return false;
+        }
+        setWasModified(true);
+        return true;
+    }
+
+    public boolean removePredecessor(int uid) {
+        if(!getDocument().getDependencies().removeDependency(uid, this.uid)) {
+            return false;
+        }
+        setWasModified(true);
+        return true;
+    }
+
+    public void clearPredecessors() {
+        getDocument().groupChanges(() -> {
+            if(getDocument().getDependencies().clearPredecessors(uid)) {
+                setWasModified(true);
+            }
+        });
     }
 
     public String getNotes1() {
@@ -663,7 +959,9 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
     }
 
     public void setNotes1(String notes1) {
+        recordChange(WBSUndoHistory.Property.NOTES1, this.notes1, notes1);
         this.notes1 = notes1;
+        invalidateSnapshot();
         setWasModified(true);
     }
 
@@ -672,19 +970,31 @@ public class WBSVisualTreeItem implements VisualTreeItem<WBSVisualTreeItem> {
     }
 
     public void setNotes2(String notes2) {
+        recordChange(WBSUndoHistory.Property.NOTES2, this.notes2, notes2);
         this.notes2 = notes2;
+        invalidateSnapshot();
         setWasModified(true);
     }
 
+    private <V> void recordChange(WBSUndoHistory.Property<V> property, V oldValue, V newValue) {
+        if(document != null && document.isRecording()) {  // lone nodes and documents without a history are not recorded
+            document.recordChange(WBSUndoHistory.propertyChange(this, property, oldValue, newValue));
+        }
+    }
+
     public void setWasModified(boolean newValue) {
-        wasModified = newValue;
+        if(!newValue) {
+            getDocument().markSaved();
+        } else if(document != null) {  // a lone node gets an unsaved document when one is created
+            document.markModified();
+        }
     }
     
     public boolean getWasModified() {
-        return wasModified;
+        return document == null || !document.isSaved();
     }
 
     public void clearWasModifiedFlag() {
-        wasModified = false;
+        getDocument().markSaved();
     }
 }